@@ -0,0 +1,373 @@
+/*
+ * BitbucketClientRegistry.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.prefs.Preferences;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.openide.util.NbPreferences;
+import org.vx68k.bitbucket.api.client.BitbucketClient;
+
+/**
+ * Registry of the clients shared by all the Bitbucket Cloud repositories.
+ * <p>Repository adapters borrow their clients from this object so that
+ * adding repositories does not multiply connections.
+ * The Bitbucket API client makes its requests through the shared HTTP
+ * client as well.</p>
+ * <p>The shared clients live as long as the module and are closed by
+ * {@link ClientCloser} when it stops.</p>
+ *
+ * @author Kaz Nishimura
+ */
+public final class BitbucketClientRegistry
+{
+    /**
+     * Preference key for the connect timeout in milliseconds.
+     */
+    public static final String CONNECT_TIMEOUT = "connectTimeout";
+
+    /**
+     * Preference key for the read timeout in milliseconds.
+     */
+    public static final String READ_TIMEOUT = "readTimeout";
+
+    /**
+     * Preference key for the maximum number of connections per host.
+     */
+    public static final String MAX_CONNECTIONS_PER_HOST =
+        "maxConnectionsPerHost";
+
+    /**
+     * Preference key for the number of requests allowed per hour.
+     */
+    public static final String REQUESTS_PER_HOUR = "requestsPerHour";
+
+    /**
+     * Preference key for the number of requests allowed in a burst.
+     */
+    public static final String REQUEST_BURST = "requestBurst";
+
+    /**
+     * Preference key for the maximum number of refreshes run in parallel.
+     */
+    public static final String REFRESH_CONCURRENCY = "refreshConcurrency";
+
+    /**
+     * Base URI of the Bitbucket Cloud API.
+     */
+    private static final String API_BASE = "https://api.bitbucket.org/2.0";
+
+    /**
+     * Default connect timeout in milliseconds.
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Default read timeout in milliseconds.
+     */
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    /**
+     * Default maximum number of connections per host.
+     */
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+
+    /**
+     * Default number of requests allowed per hour.
+     */
+    private static final int DEFAULT_REQUESTS_PER_HOUR = 1000;
+
+    /**
+     * Default number of requests allowed in a burst.
+     */
+    private static final int DEFAULT_REQUEST_BURST = 60;
+
+    /**
+     * Default maximum number of refreshes run in parallel.
+     */
+    private static final int DEFAULT_REFRESH_CONCURRENCY = 4;
+
+    /**
+     * Interval in milliseconds after which idle connections are validated
+     * before reuse.
+     */
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    /**
+     * Registries created, which are closed when the module stops.
+     */
+    private static final Set<BitbucketClientRegistry> INSTANCES =
+        Collections.newSetFromMap(new WeakHashMap<>());
+
+    /**
+     * Preferences for the module.
+     */
+    private final Preferences preferences;
+
+    /**
+     * Pooling connection manager shared by the HTTP client.
+     */
+    private PoolingHttpClientConnectionManager connectionManager = null;
+
+    /**
+     * Shared HTTP client.
+     */
+    private Client httpClient = null;
+
+    /**
+     * Shared Bitbucket API client.
+     */
+    private BitbucketClient bitbucketClient = null;
+
+    /**
+     * Request scheduler for the account of the Bitbucket API client.
+     */
+    private RequestScheduler requestScheduler = null;
+
+    /**
+     * Coordinator of refreshes across repositories.
+     */
+    private RefreshCoordinator refreshCoordinator = null;
+
+    /**
+     * Monitor of the connectivity to Bitbucket Cloud.
+     */
+    private ConnectivityMonitor connectivityMonitor = null;
+
+    /**
+     * Index of the repositories of owners.
+     */
+    private RepositoryIndex repositoryIndex = null;
+
+    /**
+     * {@code true} if this registry has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Initializes the object.
+     */
+    BitbucketClientRegistry()
+    {
+        this.preferences = NbPreferences.forModule(BitbucketConnector.class);
+        synchronized (INSTANCES) {
+            INSTANCES.add(this);
+        }
+    }
+
+    /**
+     * Closes all the registries created.
+     */
+    static void closeAll()
+    {
+        List<BitbucketClientRegistry> registries;
+        synchronized (INSTANCES) {
+            registries = new ArrayList<>(INSTANCES);
+            INSTANCES.clear();
+        }
+        registries.forEach(BitbucketClientRegistry::close);
+    }
+
+    /**
+     * Returns the shared Bitbucket API client.
+     * The returned client makes its requests through the shared HTTP
+     * client.
+     *
+     * @return the shared Bitbucket API client
+     */
+    public synchronized BitbucketClient getBitbucketClient()
+    {
+        if (bitbucketClient == null) {
+            bitbucketClient = new BitbucketClient(getHttpClient());
+        }
+        return bitbucketClient;
+    }
+
+    /**
+     * Returns the request scheduler shared by the requests made with the
+     * Bitbucket API client, so that they stay within the rate limit of its
+     * account together.
+     *
+     * @return the request scheduler
+     */
+    synchronized RequestScheduler getRequestScheduler()
+    {
+        if (requestScheduler == null) {
+            requestScheduler = new RequestScheduler(
+                Math.max(preferences.getInt(
+                    REQUESTS_PER_HOUR, DEFAULT_REQUESTS_PER_HOUR), 1),
+                preferences.getInt(REQUEST_BURST, DEFAULT_REQUEST_BURST));
+        }
+        return requestScheduler;
+    }
+
+    /**
+     * Returns the coordinator of refreshes across repositories.
+     * Its concurrency is bounded by the number of connections per host, so
+     * that refreshes leave no request of the same scheduler waiting for a
+     * connection for long.
+     *
+     * @return the coordinator of refreshes
+     */
+    synchronized RefreshCoordinator getRefreshCoordinator()
+    {
+        if (refreshCoordinator == null) {
+            int maxPerHost = preferences.getInt(
+                MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+            int concurrency = preferences.getInt(
+                REFRESH_CONCURRENCY, DEFAULT_REFRESH_CONCURRENCY);
+            refreshCoordinator = new RefreshCoordinator(
+                Math.max(Math.min(concurrency, maxPerHost), 1));
+        }
+        return refreshCoordinator;
+    }
+
+    /**
+     * Returns the monitor of the connectivity to Bitbucket Cloud, which is
+     * shared by all the repositories since they reach the same server.
+     *
+     * @return the connectivity monitor
+     */
+    synchronized ConnectivityMonitor getConnectivityMonitor()
+    {
+        if (connectivityMonitor == null) {
+            connectivityMonitor = new ConnectivityMonitor(getHttpClient());
+        }
+        return connectivityMonitor;
+    }
+
+    /**
+     * Returns the index of the repositories of owners.
+     *
+     * @return the repository index
+     */
+    synchronized RepositoryIndex getRepositoryIndex()
+    {
+        if (repositoryIndex == null) {
+            repositoryIndex = new RepositoryIndex(getHttpClient(),
+                getRequestScheduler(), getConnectivityMonitor());
+        }
+        return repositoryIndex;
+    }
+
+    /**
+     * Returns the shared HTTP client.
+     * Connections of the returned client are pooled and kept alive between
+     * requests, and they go through the proxy chosen by the default proxy
+     * selector, which follows the proxy settings of the IDE, when the
+     * client is created.
+     *
+     * @return the shared HTTP client
+     * @throws IllegalStateException if this registry has been closed
+     */
+    public synchronized Client getHttpClient()
+    {
+        if (closed) {
+            throw new IllegalStateException("Client registry closed");
+        }
+        if (httpClient == null) {
+            int maxPerHost = preferences.getInt(
+                MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setDefaultMaxPerRoute(maxPerHost);
+            connectionManager.setMaxTotal(maxPerHost);
+            connectionManager.setValidateAfterInactivity(
+                VALIDATE_AFTER_INACTIVITY);
+
+            ClientConfig config = new ClientConfig();
+            config.connectorProvider(new ApacheConnectorProvider());
+            config.property(
+                ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+            config.property(
+                ApacheClientProperties.CONNECTION_MANAGER_SHARED, true);
+            config.property(ClientProperties.CONNECT_TIMEOUT,
+                preferences.getInt(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT));
+            config.property(ClientProperties.READ_TIMEOUT,
+                preferences.getInt(READ_TIMEOUT, DEFAULT_READ_TIMEOUT));
+            configureProxy(config);
+
+            httpClient = ClientBuilder.newClient(config);
+        }
+        return httpClient;
+    }
+
+    /**
+     * Closes the shared clients and their connections.
+     * The connection manager is closed explicitly since the HTTP client
+     * does not own it.
+     * No client can be obtained from this registry afterwards.
+     */
+    synchronized void close()
+    {
+        closed = true;
+        bitbucketClient = null;
+        if (httpClient != null) {
+            httpClient.close();
+            httpClient = null;
+        }
+        if (connectionManager != null) {
+            connectionManager.close();
+            connectionManager = null;
+        }
+    }
+
+    /**
+     * Sets the proxy that the default proxy selector chooses for the
+     * Bitbucket Cloud API in a client configuration.
+     * Nothing is set if the selector chooses a direct connection.
+     *
+     * @param config a client configuration
+     */
+    private static void configureProxy(final ClientConfig config)
+    {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return;
+        }
+
+        List<Proxy> proxies = selector.select(URI.create(API_BASE));
+        if (!proxies.isEmpty()) {
+            Proxy proxy = proxies.get(0);
+            if (proxy.type() == Proxy.Type.HTTP
+                && proxy.address() instanceof InetSocketAddress) {
+                InetSocketAddress address =
+                    (InetSocketAddress) proxy.address();
+                config.property(ClientProperties.PROXY_URI, "http://"
+                    + address.getHostString() + ":" + address.getPort());
+            }
+        }
+    }
+}
@@ -52,6 +52,11 @@ public final class BitbucketConnector implements BugtrackingConnector
      */
     public static final String TOOLTIP = "Bitbucket Cloud Task Repository";
 
+    /**
+     * Registry of the shared clients.
+     */
+    private final BitbucketClientRegistry clientRegistry;
+
     /**
      * Repository provider.
      */
@@ -78,11 +83,16 @@ public final class BitbucketConnector implements BugtrackingConnector
      */
     public BitbucketConnector()
     {
-        this.repositoryProvider = new BitbucketRepositoryProvider();
+        this.clientRegistry = new BitbucketClientRegistry();
+        this.repositoryProvider =
+            new BitbucketRepositoryProvider(this.clientRegistry);
         this.issuePriorityProvider = new BitbucketIssuePriorityProvider();
-        this.issueFinder = new BitbucketIssueFinder();
+        this.issueFinder = new BitbucketIssueFinder(
+            new IssuePrefetcher(this.repositoryProvider));
         this.support = new BugtrackingSupport<>(
-            this.repositoryProvider, new BitbucketQueryProvider(),
+            this.repositoryProvider,
+            new BitbucketQueryProvider(
+                this.clientRegistry.getRefreshCoordinator()),
             new BitbucketIssueProvider());
     }
 
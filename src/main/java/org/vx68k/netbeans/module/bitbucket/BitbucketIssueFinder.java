@@ -20,10 +20,7 @@
 
 package org.vx68k.netbeans.module.bitbucket;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 import org.netbeans.modules.bugtracking.spi.IssueFinder;
 
 /**
@@ -34,38 +31,160 @@ import org.netbeans.modules.bugtracking.spi.IssueFinder;
 public final class BitbucketIssueFinder implements IssueFinder
 {
     /**
-     * Pattern to match an issue string.
+     * Initial length of span buffers.
      */
-    private static final Pattern ISSUE_PATTERN = Pattern.compile("#(\\d+)");
+    private static final int SPAN_BUFFER_LENGTH = 64;
+
+    /**
+     * Span buffer of each thread, reused across calls.
+     */
+    private static final ThreadLocal<int[]> SPAN_BUFFER =
+        ThreadLocal.withInitial(() -> new int[SPAN_BUFFER_LENGTH]);
+
+    /**
+     * Prefetcher of the issues found, or {@code null}.
+     */
+    private final IssuePrefetcher prefetcher;
+
+    /**
+     * Cache of issue spans of large texts.
+     */
+    private final IssueSpanCache spanCache = new IssueSpanCache(
+        IssueReferenceScanner::match, IssueReferenceScanner.LOOKAHEAD);
 
     /**
      * Initialized the object while not allowing public instantiation.
      */
     protected BitbucketIssueFinder()
     {
+        this(null);
+    }
+
+    /**
+     * Initializes the object with a prefetcher of the issues found.
+     *
+     * @param prefetcher a prefetcher of the issues found, or {@code null}
+     */
+    BitbucketIssueFinder(final IssuePrefetcher prefetcher)
+    {
+        this.prefetcher = prefetcher;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>Issue references are recognized in the forms described in
+     * {@link IssueReferenceScanner}.
+     * The text is searched for trigger characters, {@code #} and
+     * {@code /}, and matches are attempted only from a short distance
+     * before each of them, so that the text between references is read
+     * only once, as a regular expression for {@code #123} would.
+     * The spans are collected into a span buffer reused by the thread, so
+     * that nothing but the result is allocated.
+     * Large texts are scanned incrementally with their cached spans
+     * instead.
+     * The issues referenced are prefetched in the background.</p>
+     */
     @Override
     public int[] getIssueSpans(final CharSequence text)
     {
-        Matcher matcher = ISSUE_PATTERN.matcher(text);
+        int[] spans = findIssueSpans(text);
+        if (prefetcher != null && spans.length != 0) {
+            prefetcher.prefetch(text, spans);
+        }
+        return spans;
+    }
+
+    /**
+     * Finds the issue references in a text.
+     *
+     * @param text a text
+     * @return the spans of the issue references
+     */
+    private int[] findIssueSpans(final CharSequence text)
+    {
+        int length = text.length();
+        if (length >= IssueSpanCache.MIN_LENGTH) {
+            return spanCache.getSpans(text);
+        }
 
-        List<Integer> spans = new ArrayList<>();
-        while (matcher.find()) {
-            spans.add(matcher.start());
-            spans.add(matcher.end());
+        int[] buffer = SPAN_BUFFER.get();
+        int k = 0;
+        int i = 0;
+        int hash = IssueReferenceScanner.indexOf(text, '#', 0);
+        int slash = IssueReferenceScanner.indexOf(text, '/', 0);
+        while (hash >= 0 || slash >= 0) {
+            int trigger = hash;
+            if (trigger < 0 || slash >= 0 && slash < trigger) {
+                trigger = slash;
+            }
+            i = IssueReferenceScanner.backtrack(text, trigger, i);
+            while (i <= trigger) {
+                int end = IssueReferenceScanner.match(text, i);
+                if (end >= 0) {
+                    if (k == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                        SPAN_BUFFER.set(buffer);
+                    }
+                    buffer[k++] = i;
+                    buffer[k++] = end;
+                    i = end;
+                }
+                else {
+                    i = IssueReferenceScanner.skip(text, i);
+                }
+            }
+            if (hash >= 0 && hash < i) {
+                hash = IssueReferenceScanner.indexOf(text, '#', i);
+            }
+            if (slash >= 0 && slash < i) {
+                slash = IssueReferenceScanner.indexOf(text, '/', i);
+            }
         }
-        return spans.stream().mapToInt((i) -> i.intValue()).toArray();
+        return Arrays.copyOf(buffer, k);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>The identifier of a reference qualified with a repository, such as
+     * {@code owner/repo#123} or an issue URL, is in the form
+     * {@code owner/repo#123}; otherwise it is the issue number.</p>
+     */
     @Override
     public String getIssueId(final String text)
     {
-        Matcher matcher = ISSUE_PATTERN.matcher(text);
+        if (text.isEmpty()) {
+            return null;
+        }
+
+        int[] groups = new int[IssueReferenceScanner.GROUP_COUNT];
+        if (IssueReferenceScanner.match(text, 0, groups) != text.length()) {
+            return null;
+        }
+        return toIssueId(text, groups);
+    }
 
-        String value = null;
-        if (matcher.matches()) {
-            value = matcher.group(1);
+    /**
+     * Returns the identifier of an issue reference matched in a text.
+     *
+     * @param text a text
+     * @param groups the parts of the issue reference as captured by
+     * {@link IssueReferenceScanner#match(CharSequence, int, int[])}
+     * @return the identifier of the issue reference
+     * @see #getIssueId(String)
+     */
+    static String toIssueId(final CharSequence text, final int[] groups)
+    {
+        String value = text.subSequence(
+            groups[IssueReferenceScanner.NUMBER_START],
+            groups[IssueReferenceScanner.NUMBER_END]).toString();
+        if (groups[IssueReferenceScanner.OWNER_START] >= 0) {
+            value = text.subSequence(
+                groups[IssueReferenceScanner.OWNER_START],
+                groups[IssueReferenceScanner.OWNER_END])
+                + "/" + text.subSequence(
+                    groups[IssueReferenceScanner.NAME_START],
+                    groups[IssueReferenceScanner.NAME_END])
+                + "#" + value;
         }
         return value;
     }
@@ -26,8 +26,8 @@ import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.netbeans.modules.bugtracking.spi.IssueController;
 import org.netbeans.modules.bugtracking.spi.IssueProvider;
 import org.vx68k.bitbucket.api.BitbucketIssue;
@@ -63,16 +63,22 @@ public final class BitbucketIssueProvider implements
     };
 
     /**
-     * Map to adapters.
+     * Logger for this class.
      */
-    private final Map<BitbucketIssue, Adapter> adapterMap;
+    private static final Logger LOGGER =
+        Logger.getLogger(BitbucketIssueProvider.class.getName());
+
+    /**
+     * Registry of adapters.
+     */
+    private final WeakRegistry<BitbucketIssue, Adapter> adapters;
 
     /**
      * Initializes the object.
      */
     public BitbucketIssueProvider()
     {
-        adapterMap = new WeakHashMap<>();
+        adapters = new WeakRegistry<>();
     }
 
     /**
@@ -83,12 +89,7 @@ public final class BitbucketIssueProvider implements
      */
     Adapter getAdapter(final BitbucketIssue issue)
     {
-        Adapter value = adapterMap.get(issue);
-        if (value == null) {
-            value = new Adapter(issue);
-            adapterMap.put(issue, value);
-        }
-        return value;
+        return adapters.computeIfAbsent(issue, Adapter::new);
     }
 
     /**
@@ -161,11 +162,31 @@ public final class BitbucketIssueProvider implements
 
     /**
      * {@inheritDoc}
+     * <p>An issue that has not changed on the server is revalidated without
+     * being transferred again.
+     * If the issue has changed, listeners are notified with
+     * {@link IssueProvider#EVENT_ISSUE_DATA_CHANGED}.</p>
      */
     @Override
     public boolean refresh(final BitbucketIssue issue)
     {
-        return false;
+        CachedIssue handler = CachedIssue.getHandler(issue);
+        if (handler == null) {
+            return false;
+        }
+
+        boolean changed;
+        try {
+            changed = handler.refresh();
+        }
+        catch (RuntimeException exception) {
+            LOGGER.log(Level.INFO, "Failed to refresh an issue", exception);
+            return false;
+        }
+        if (changed) {
+            getAdapter(issue).fireDataChanged();
+        }
+        return true;
     }
 
     /**
@@ -232,9 +253,10 @@ public final class BitbucketIssueProvider implements
         private final WeakReference<BitbucketIssue> issue;
 
         /**
-         * Property change support object.
+         * Property change support object, or {@code null} if no listener
+         * has been added.
          */
-        private final PropertyChangeSupport support;
+        private PropertyChangeSupport support = null;
 
         /**
          * Controller for the issue.
@@ -243,13 +265,18 @@ public final class BitbucketIssueProvider implements
 
         /**
          * Initializes the object.
+         * If the issue is a cached one, its listeners are notified when
+         * its full issue is loaded in the background.
          *
          * @param issue a Bitbucket Cloud issue
          */
         protected Adapter(final BitbucketIssue issue)
         {
             this.issue = new WeakReference<>(issue);
-            this.support = new PropertyChangeSupport(this);
+            CachedIssue handler = CachedIssue.getHandler(issue);
+            if (handler != null) {
+                handler.setLoadListener(this::fireDataChanged);
+            }
         }
 
         /**
@@ -284,12 +311,19 @@ public final class BitbucketIssueProvider implements
 
         /**
          * Returns the tooltip text of the issue.
+         * An issue that has not been validated with the server is marked
+         * as stale.
          *
          * @return the tooltip text of the issue
          */
         public String getTooltip()
         {
-            return getIssue().getState();
+            BitbucketIssue value = getIssue();
+            CachedIssue handler = CachedIssue.getHandler(value);
+            if (handler != null && !handler.isValidated()) {
+                return value.getState() + " (stale)";
+            }
+            return value.getState();
         }
 
         /**
@@ -323,14 +357,32 @@ public final class BitbucketIssueProvider implements
             controller = null;
         }
 
+        /**
+         * Notifies the listeners that the data of the issue has changed.
+         */
+        void fireDataChanged()
+        {
+            PropertyChangeSupport currentSupport;
+            synchronized (this) {
+                currentSupport = support;
+            }
+            if (currentSupport != null) {
+                currentSupport.firePropertyChange(
+                    IssueProvider.EVENT_ISSUE_DATA_CHANGED, null, null);
+            }
+        }
+
         /**
          * Adds a property change listener for the issue.
          *
          * @param listener a property change listener
          */
-        public void addPropertyChangeListener(
+        public synchronized void addPropertyChangeListener(
             final PropertyChangeListener listener)
         {
+            if (support == null) {
+                support = new PropertyChangeSupport(this);
+            }
             support.addPropertyChangeListener(listener);
         }
 
@@ -339,10 +391,12 @@ public final class BitbucketIssueProvider implements
          *
          * @param listener a property change listener
          */
-        public void removePropertyChangeListener(
+        public synchronized void removePropertyChangeListener(
             final PropertyChangeListener listener)
         {
-            support.removePropertyChangeListener(listener);
+            if (support != null) {
+                support.removePropertyChangeListener(listener);
+            }
         }
     }
 }
@@ -20,23 +20,99 @@
 
 package org.vx68k.netbeans.module.bitbucket;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import javax.ws.rs.NotFoundException;
+import org.openide.util.RequestProcessor;
 import org.vx68k.bitbucket.api.BitbucketIssue;
 import org.vx68k.bitbucket.api.BitbucketIssueTracker;
 import org.vx68k.bitbucket.api.BitbucketRepository;
+import org.vx68k.netbeans.module.bitbucket.RequestScheduler.Lane;
 
 /**
  * Issue tracker proxy for Bitbucket Cloud.
+ * <p>Until the proxy is bound to an issue store, calls are passed to the
+ * target issue tracker.
+ * Once bound, issues are served from the issue store first as cached
+ * issues and revalidated in the background; requests to the server are
+ * made by the client for issue summaries, and query results are fetched
+ * and synchronized by the refresh coordinator.</p>
  *
  * @author Kaz Nishimura
  */
 public class BitbucketIssueTrackerProxy implements BitbucketIssueTracker
 {
     /**
-     * Target issue tracker.
+     * Maximum number of full issues loaded in parallel.
      */
-    private BitbucketIssueTracker target;
+    private static final int PARALLEL_LOADS = 4;
+
+    /**
+     * Maximum number of issues returned by a search.
+     */
+    private static final int SEARCH_LIMIT = 100;
+
+    /**
+     * Maximum number of prefetched issues remembered.
+     */
+    private static final int MAX_PREFETCHED = 256;
+
+    /**
+     * Interval in milliseconds before an issue is prefetched again.
+     */
+    private static final long PREFETCH_INTERVAL = 5L * 60 * 1000;
+
+    /**
+     * Request processor for loads of full issues.
+     */
+    private static final RequestProcessor LOADER = new RequestProcessor(
+        BitbucketIssueTrackerProxy.class.getName(), PARALLEL_LOADS);
+
+    /**
+     * Interner of the cached issues, which keeps one live issue object for
+     * each identifier.
+     */
+    private final IssueInterner cachedIssues = new IssueInterner();
+
+    /**
+     * Recent prefetches by issue identifier in the order of access.
+     * Prefetched issues are kept from being collected until they are used,
+     * and issues not found are not prefetched again for a while.
+     */
+    private final Map<Integer, Prefetch> prefetches =
+        new LinkedHashMap<Integer, Prefetch>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<Integer, Prefetch> eldest)
+            {
+                return size() > MAX_PREFETCHED;
+            }
+        };
+
+    /**
+     * Target issue tracker used while not bound.
+     */
+    private volatile BitbucketIssueTracker target;
+
+    /**
+     * Binding to an issue store, or {@code null} if not bound.
+     */
+    private volatile Binding binding = null;
+
+    /**
+     * Query registry.
+     */
+    private volatile QueryRegistry queryRegistry = null;
 
     /**
      * Initializes the object.
@@ -67,43 +143,558 @@ public class BitbucketIssueTrackerProxy implements BitbucketIssueTracker
         target = newValue;
     }
 
+    /**
+     * Binds the proxy to an issue store and the objects that fill it.
+     * If the issue store is replaced, the cached and prefetched issues are
+     * dropped, since they came from the previous one.
+     *
+     * @param store an issue store
+     * @param client a client for the issue summaries of the repository
+     * @param coordinator a coordinator of refreshes
+     */
+    final void bind(
+        final IssueStore store, final IssueSummaryClient client,
+        final RefreshCoordinator coordinator)
+    {
+        Binding oldValue = binding;
+        binding = new Binding(store, client, coordinator);
+        if (oldValue != null && oldValue.store != store) {
+            cachedIssues.clear();
+            synchronized (prefetches) {
+                prefetches.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} unless the proxy is bound and the server is
+     * unreachable.
+     *
+     * @return {@code true} if the server can be called; {@code false}
+     * otherwise
+     */
+    public final boolean isOnline()
+    {
+        Binding current = binding;
+        return current == null || current.client.isOnline();
+    }
+
+    /**
+     * Returns the query registry.
+     *
+     * @return the query registry if set; {@code null} otherwise
+     */
+    final QueryRegistry getQueryRegistry()
+    {
+        return queryRegistry;
+    }
+
+    /**
+     * Sets the query registry.
+     * The registry is kept here rather than in the adapter of the
+     * repository, since its queries refer to the repository.
+     *
+     * @param newValue a new value of the query registry
+     */
+    final void setQueryRegistry(final QueryRegistry newValue)
+    {
+        queryRegistry = newValue;
+    }
+
+    /**
+     * Returns the cached issue for a stored record.
+     * The cached issue is created if it does not exist; otherwise its record
+     * is updated, and the full issue is dropped if the issue has been
+     * updated since it was loaded.
+     *
+     * @param current the current binding
+     * @param record a stored record of the issue
+     * @return the cached issue
+     */
+    private BitbucketIssue getCachedIssue(
+        final Binding current, final IssueRecord record)
+    {
+        BitbucketIssue value = cachedIssues.intern(record.getId(), (issue) -> {
+            if (issue == null) {
+                return CachedIssue.newIssue(
+                    record, this::loadIssue, LOADER, this::refreshIssue);
+            }
+
+            CachedIssue handler = CachedIssue.getHandler(issue);
+            IssueRecord previous = handler.getRecord();
+            if (record.getUpdatedOn() != null
+                && previous.getUpdatedOn() != null
+                && !record.getUpdatedOn().equals(previous.getUpdatedOn())) {
+                handler.setDetail(null);
+            }
+            handler.setRecord(record.mergeWith(previous));
+            return issue;
+        });
+        if (current.store.isValidated(record.getId())) {
+            CachedIssue.getHandler(value).setValidated();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached issues for stored records.
+     *
+     * @param current the current binding
+     * @param records stored records of the issues
+     * @return the cached issues
+     */
+    private List<BitbucketIssue> getCachedIssues(
+        final Binding current, final Collection<IssueRecord> records)
+    {
+        return records.stream()
+            .map((record) -> getCachedIssue(current, record))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Stores records fetched from the server and returns the cached issues
+     * for them.
+     *
+     * @param current the current binding
+     * @param records records fetched from the server
+     * @return the cached issues
+     */
+    private List<BitbucketIssue> cache(
+        final Binding current, final Collection<IssueRecord> records)
+    {
+        return getCachedIssues(current, current.store.putAll(records));
+    }
+
+    /**
+     * Stores a full issue loaded from the server and returns the cached
+     * issue for it.
+     *
+     * @param current the current binding
+     * @param issue a full issue
+     * @return the cached issue
+     */
+    private BitbucketIssue cache(
+        final Binding current, final BitbucketIssue issue)
+    {
+        // The record is updated with the content of the full issue.
+        BitbucketIssue value = cache(
+            current, Collections.singletonList(IssueRecord.of(issue))).get(0);
+        CachedIssue.getHandler(value).setDetail(issue);
+        return value;
+    }
+
+    /**
+     * Loads the full issue for a cached issue.
+     *
+     * @param id the identifier of the issue
+     * @return the full issue, or {@code null} if the server is unreachable
+     */
+    private BitbucketIssue loadIssue(final int id)
+    {
+        Binding current = binding;
+        if (current == null) {
+            return null;
+        }
+
+        BitbucketIssue value = current.client.loadIssue(id);
+        if (value != null) {
+            cache(current, value);
+        }
+        return value;
+    }
+
+    /**
+     * Refreshes a cached issue from the server.
+     * The issue is fetched with a conditional request, and nothing is
+     * decoded if it has not changed.
+     * If the server is unreachable, the stored issue is kept as is.
+     *
+     * @param id the identifier of the issue
+     * @return {@code true} if the issue has changed; {@code false}
+     * otherwise
+     */
+    private boolean refreshIssue(final int id)
+    {
+        Binding current = binding;
+        if (current == null || !current.client.isOnline()) {
+            return false;
+        }
+
+        BitbucketIssue cachedIssue = cachedIssues.get(id);
+        IssueRecord previous = null;
+        if (cachedIssue != null) {
+            previous = CachedIssue.getHandler(cachedIssue).getRecord();
+        }
+
+        IssueRecord record = current.client.fetchIssue(id, Lane.INTERACTIVE);
+        if (record == null) {
+            if (cachedIssue != null) {
+                CachedIssue.getHandler(cachedIssue).setValidated();
+            }
+            return false;
+        }
+
+        cachedIssue = cache(current, Collections.singleton(record)).get(0);
+        return !CachedIssue.getHandler(cachedIssue).getRecord()
+            .equals(previous);
+    }
+
+    /**
+     * Finds an issue that is not in the issue store on the server.
+     *
+     * @param current the current binding
+     * @param id the identifier of the issue
+     * @return the cached issue if found; {@code null} otherwise
+     */
+    private BitbucketIssue findIssue(final Binding current, final int id)
+    {
+        IssueRecord record;
+        try {
+            record = current.client.fetchIssue(id, Lane.INTERACTIVE);
+        }
+        catch (NotFoundException exception) {
+            return null;
+        }
+        if (record != null) {
+            return cache(current, Collections.singleton(record)).get(0);
+        }
+
+        // The issue has not changed since it was fetched last.
+        BitbucketIssue value = cachedIssues.get(id);
+        if (value == null) {
+            BitbucketIssue issue = current.client.loadIssue(id);
+            if (issue != null) {
+                value = cache(current, issue);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Revalidates issues with the server in the background.
+     *
+     * @param current the current binding
+     * @param ids identifiers of the issues
+     */
+    private void revalidate(
+        final Binding current, final Collection<Integer> ids)
+    {
+        if (current.client.isOnline()) {
+            current.coordinator.revalidate(current.store, current.client, ids,
+                (records) -> getCachedIssues(current, records));
+        }
+    }
+
     @Override
     public final BitbucketIssue getIssue(final int id)
     {
-        BitbucketIssue value = null;
-        if (target != null) {
-            value = target.getIssue(id);
+        Binding current = binding;
+        if (current == null) {
+            BitbucketIssue value = null;
+            BitbucketIssueTracker tracker = target;
+            if (tracker != null) {
+                value = tracker.getIssue(id);
+            }
+            return value;
+        }
+
+        IssueRecord record = current.store.get(id);
+        if (record != null) {
+            BitbucketIssue value = getCachedIssue(current, record);
+            if (!CachedIssue.getHandler(value).isValidated()) {
+                revalidate(current, Collections.singleton(id));
+            }
+            return value;
+        }
+
+        if (!current.client.isOnline()) {
+            return cachedIssues.get(id);
+        }
+        return findIssue(current, id);
+    }
+
+    /**
+     * Returns the issues for identifiers.
+     * Stored issues are returned at once and revalidated in the background,
+     * and the others are fetched from the server.
+     * Issues that cannot be found at all are omitted from the result.
+     *
+     * @param ids identifiers of the issues
+     * @return the issues found, in the order of the identifiers
+     */
+    public final Collection<BitbucketIssue> getIssues(
+        final Collection<Integer> ids)
+    {
+        Binding current = binding;
+        if (current == null) {
+            return new LinkedHashSet<>(ids).stream()
+                .map(this::getIssue)
+                .filter((issue) -> issue != null)
+                .collect(Collectors.toList());
+        }
+
+        Map<Integer, BitbucketIssue> found = new LinkedHashMap<>();
+        List<Integer> missingIds = new ArrayList<>();
+        List<Integer> staleIds = new ArrayList<>();
+        for (int id : new LinkedHashSet<>(ids)) {
+            IssueRecord record = current.store.get(id);
+            if (record != null) {
+                BitbucketIssue issue = getCachedIssue(current, record);
+                if (!CachedIssue.getHandler(issue).isValidated()) {
+                    staleIds.add(id);
+                }
+                found.put(id, issue);
+            }
+            else {
+                found.put(id, null);
+                missingIds.add(id);
+            }
+        }
+
+        if (!missingIds.isEmpty() && current.client.isOnline()) {
+            cache(current,
+                current.client.fetchIssues(missingIds, Lane.INTERACTIVE))
+                .forEach((issue) -> found.put(issue.getId(), issue));
+        }
+        if (!staleIds.isEmpty()) {
+            revalidate(current, staleIds);
+        }
+
+        return found.values().stream()
+            .filter((issue) -> issue != null)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Prefetches issues into the cache.
+     * Issues that are already cached and validated are skipped, and the
+     * others are fetched in as few requests as possible in the background
+     * lane.
+     *
+     * @param ids identifiers of the issues
+     */
+    public final void prefetchIssues(final Collection<Integer> ids)
+    {
+        Binding current = binding;
+        if (current == null || !current.client.isOnline()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Integer> missingIds = new ArrayList<>();
+        synchronized (prefetches) {
+            for (int id : new LinkedHashSet<>(ids)) {
+                Prefetch prefetch = prefetches.get(id);
+                if (prefetch != null
+                    && now < prefetch.time + PREFETCH_INTERVAL) {
+                    continue;
+                }
+
+                BitbucketIssue issue = cachedIssues.get(id);
+                if (issue == null
+                    || !CachedIssue.getHandler(issue).isValidated()) {
+                    missingIds.add(id);
+                    prefetches.put(id, new Prefetch(null, now));
+                }
+            }
+        }
+        if (missingIds.isEmpty()) {
+            return;
+        }
+
+        List<BitbucketIssue> issues = cache(current,
+            current.client.fetchIssues(missingIds, Lane.BACKGROUND));
+        synchronized (prefetches) {
+            issues.forEach((issue) -> prefetches.put(
+                issue.getId(), new Prefetch(issue, now)));
+        }
+    }
+
+    /**
+     * Returns the stored issues found by a filter.
+     *
+     * @param filter a filter expression, or {@code null}
+     * @return the stored issues found by the filter if any result is stored;
+     * {@code null} otherwise
+     */
+    public final Collection<BitbucketIssue> getStoredIssues(
+        final String filter)
+    {
+        Collection<BitbucketIssue> value = null;
+        Binding current = binding;
+        if (current != null) {
+            List<IssueRecord> records = current.store.getResult(filter);
+            if (records != null) {
+                value = getCachedIssues(current, records);
+            }
         }
         return value;
     }
 
+    /**
+     * Searches the stored issues for a text without calling the server.
+     *
+     * @param text a text to search for
+     * @return the issues found, in the order of rank
+     */
+    public final Collection<BitbucketIssue> search(final String text)
+    {
+        Binding current = binding;
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        return getCachedIssues(
+            current, current.store.search(text, SEARCH_LIMIT));
+    }
+
+    /**
+     * Synchronizes the stored issues found by a filter with the server.
+     * If the server is unreachable, the stored issues are returned stale
+     * if any.
+     *
+     * @param filter a filter expression, or {@code null}
+     * @return the synchronized issues found by the filter
+     */
+    public final Collection<BitbucketIssue> syncIssues(final String filter)
+    {
+        Binding current = binding;
+        if (current == null) {
+            return issues(filter);
+        }
+        return getCachedIssues(current,
+            current.coordinator.sync(current.store, current.client, filter));
+    }
+
     @Override
     public final Collection<BitbucketIssue> issues()
     {
-        Collection<BitbucketIssue> value = Collections.emptyList();
-        if (target != null) {
-            value = target.issues();
-        }
-        return value;
+        return issues(null);
     }
 
     @Override
     public final Collection<BitbucketIssue> issues(final String filter)
     {
-        Collection<BitbucketIssue> value = Collections.emptyList();
-        if (target != null) {
-            value = target.issues(filter);
+        return issues(filter, (page) -> { });
+    }
+
+    /**
+     * Fetches the issues found by a filter page by page.
+     * If the current thread is interrupted, fetching is cancelled.
+     * If the server is unreachable, the stored issues are passed stale if
+     * any.
+     *
+     * @param filter a filter expression, or {@code null}
+     * @param consumer a consumer of each page of the issues
+     * @return the issues found by the filter
+     * @throws java.util.concurrent.CancellationException if fetching was
+     * cancelled
+     */
+    public final Collection<BitbucketIssue> issues(
+        final String filter, final Consumer<List<BitbucketIssue>> consumer)
+    {
+        Binding current = binding;
+        if (current == null) {
+            Collection<BitbucketIssue> value = Collections.emptyList();
+            BitbucketIssueTracker tracker = target;
+            if (tracker != null) {
+                if (filter == null) {
+                    value = tracker.issues();
+                }
+                else {
+                    value = tracker.issues(filter);
+                }
+            }
+            if (!value.isEmpty()) {
+                consumer.accept(new ArrayList<>(value));
+            }
+            return value;
         }
-        return value;
+
+        List<IssueRecord> records = current.coordinator.fetch(
+            current.store, current.client, filter,
+            (page) -> consumer.accept(getCachedIssues(current, page)));
+        return Collections.unmodifiableList(
+            getCachedIssues(current, records));
     }
 
     @Override
     public final BitbucketRepository getRepository()
     {
+        BitbucketIssueTracker tracker = target;
+        Binding current = binding;
+        if (current != null) {
+            tracker = current.client.getTarget();
+        }
+
         BitbucketRepository value = null;
-        if (target != null) {
-            value = target.getRepository();
+        if (tracker != null) {
+            value = tracker.getRepository();
         }
         return value;
     }
+
+    /**
+     * Binding of a proxy to an issue store.
+     */
+    private static final class Binding
+    {
+        /**
+         * Issue store.
+         */
+        private final IssueStore store;
+
+        /**
+         * Client for the issue summaries of the repository.
+         */
+        private final IssueSummaryClient client;
+
+        /**
+         * Coordinator of refreshes.
+         */
+        private final RefreshCoordinator coordinator;
+
+        /**
+         * Initializes the object.
+         *
+         * @param store an issue store
+         * @param client a client for the issue summaries of the repository
+         * @param coordinator a coordinator of refreshes
+         */
+        Binding(
+            final IssueStore store, final IssueSummaryClient client,
+            final RefreshCoordinator coordinator)
+        {
+            this.store = store;
+            this.client = client;
+            this.coordinator = coordinator;
+        }
+    }
+
+    /**
+     * Record of a prefetch.
+     */
+    private static final class Prefetch
+    {
+        /**
+         * Issue prefetched, or {@code null} if not found.
+         */
+        private final BitbucketIssue issue;
+
+        /**
+         * Time in milliseconds when the issue was prefetched.
+         */
+        private final long time;
+
+        /**
+         * Initializes the object.
+         *
+         * @param issue the issue prefetched, or {@code null}
+         * @param time the time when the issue was prefetched
+         */
+        Prefetch(final BitbucketIssue issue, final long time)
+        {
+            this.issue = issue;
+            this.time = time;
+        }
+    }
 }
@@ -21,8 +21,9 @@
 package org.vx68k.netbeans.module.bitbucket;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
 import org.vx68k.bitbucket.api.BitbucketIssue;
-import org.vx68k.bitbucket.api.BitbucketIssueTracker;
 
 /**
  * Query for Bitbucket Cloud.
@@ -34,7 +35,12 @@ public final class BitbucketQuery
     /**
      * Repository where the query searches for issues.
      */
-    private final BitbucketIssueTracker repository;
+    private final BitbucketIssueTrackerProxy repository;
+
+    /**
+     * Query registry of the repository.
+     */
+    private final QueryRegistry registry;
 
     /**
      * Display name of the query.
@@ -50,10 +56,14 @@ public final class BitbucketQuery
      * Initializes the object.
      *
      * @param repository repository to which the query is bound
+     * @param registry the query registry of the repository
      */
-    protected BitbucketQuery(final BitbucketIssueTracker repository)
+    BitbucketQuery(
+        final BitbucketIssueTrackerProxy repository,
+        final QueryRegistry registry)
     {
         this.repository = repository;
+        this.registry = registry;
     }
 
     /**
@@ -96,6 +106,69 @@ public final class BitbucketQuery
         filter = newValue;
     }
 
+    /**
+     * Returns {@code true} if the query was defined by a user and saved.
+     * Only such queries can be renamed or removed.
+     *
+     * @return {@code true} if the query is a saved user query; {@code false}
+     * otherwise
+     */
+    public boolean isUserQuery()
+    {
+        return registry.isUserQuery(this);
+    }
+
+    /**
+     * Returns {@code true} if the query is one of the predefined queries of
+     * the repository.
+     * Predefined queries cannot be changed.
+     *
+     * @return {@code true} if the query is a predefined query; {@code false}
+     * otherwise
+     */
+    public boolean isPredefined()
+    {
+        return registry.isPredefinedQuery(this);
+    }
+
+    /**
+     * Creates a new query of the same repository.
+     * The new query is registered when it is saved.
+     *
+     * @return a new query
+     */
+    public BitbucketQuery createQuery()
+    {
+        return registry.createQuery();
+    }
+
+    /**
+     * Saves the query as a user query of the repository.
+     */
+    public void save()
+    {
+        registry.save(this);
+    }
+
+    /**
+     * Removes the query from the user queries of the repository.
+     */
+    public void remove()
+    {
+        registry.remove(this);
+    }
+
+    /**
+     * Returns {@code true} if the server of the repository is unreachable,
+     * in which case the issues are served stale from the local store.
+     *
+     * @return {@code true} if offline; {@code false} otherwise
+     */
+    public boolean isOffline()
+    {
+        return !repository.isOnline();
+    }
+
     /**
      * Returns a {@link Collection} view of the issues found.
      *
@@ -105,4 +178,40 @@ public final class BitbucketQuery
     {
         return repository.issues(filter);
     }
+
+    /**
+     * Fetches the issues found page by page.
+     *
+     * @param consumer a consumer of each page of the issues
+     * @return a {@link Collection} view of the issues found
+     */
+    public Collection<BitbucketIssue> issues(
+        final Consumer<List<BitbucketIssue>> consumer)
+    {
+        return repository.issues(filter, consumer);
+    }
+
+    /**
+     * Synchronizes the issues found with the repository.
+     * Only the issues updated since the last synchronization are fetched if
+     * possible.
+     *
+     * @return a {@link Collection} view of the issues found
+     */
+    public Collection<BitbucketIssue> syncIssues()
+    {
+        return repository.syncIssues(filter);
+    }
+
+    /**
+     * Returns a {@link Collection} view of the issues found and stored last
+     * time.
+     *
+     * @return a {@link Collection} view of the stored issues if any;
+     * {@code null} otherwise
+     */
+    public Collection<BitbucketIssue> storedIssues()
+    {
+        return repository.getStoredIssues(filter);
+    }
 }
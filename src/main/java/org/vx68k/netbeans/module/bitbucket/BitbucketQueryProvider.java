@@ -20,10 +20,22 @@
 
 package org.vx68k.netbeans.module.bitbucket;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.modules.bugtracking.spi.QueryController;
 import org.netbeans.modules.bugtracking.spi.QueryProvider;
+import org.openide.util.RequestProcessor;
 import org.vx68k.bitbucket.api.BitbucketIssue;
 import org.vx68k.netbeans.module.bitbucket.ui.BitbucketQueryController;
 
@@ -36,16 +48,30 @@ public final class BitbucketQueryProvider implements
     QueryProvider<BitbucketQuery, BitbucketIssue>
 {
     /**
-     * Map for descriptors.
+     * Logger for this class.
      */
-    private final Map<BitbucketQuery, Descriptor> descriptors;
+    private static final Logger LOGGER =
+        Logger.getLogger(BitbucketQueryProvider.class.getName());
+
+    /**
+     * Coordinator of refreshes.
+     */
+    private final RefreshCoordinator refreshCoordinator;
+
+    /**
+     * Registry of descriptors.
+     */
+    private final WeakRegistry<BitbucketQuery, Descriptor> descriptors;
 
     /**
      * Initializes the object while rejecting public instantiation.
+     *
+     * @param refreshCoordinator a coordinator of refreshes
      */
-    BitbucketQueryProvider()
+    BitbucketQueryProvider(final RefreshCoordinator refreshCoordinator)
     {
-        this.descriptors = new WeakHashMap<>();
+        this.refreshCoordinator = refreshCoordinator;
+        this.descriptors = new WeakRegistry<>();
     }
 
     /**
@@ -56,12 +82,8 @@ public final class BitbucketQueryProvider implements
      */
     Descriptor getDescriptor(final BitbucketQuery query)
     {
-        Descriptor value = descriptors.get(query);
-        if (value == null) {
-            value = new Descriptor();
-            descriptors.put(query, value);
-        }
-        return value;
+        return descriptors.computeIfAbsent(
+            query, (key) -> new Descriptor(refreshCoordinator));
     }
 
     /**
@@ -100,7 +122,7 @@ public final class BitbucketQueryProvider implements
     @Override
     public QueryController getController(final BitbucketQuery query)
     {
-        return new BitbucketQueryController();
+        return new BitbucketQueryController(query);
     }
 
     /**
@@ -109,7 +131,7 @@ public final class BitbucketQueryProvider implements
     @Override
     public boolean canRemove(final BitbucketQuery query)
     {
-        return false;
+        return query.isUserQuery();
     }
 
     /**
@@ -118,7 +140,10 @@ public final class BitbucketQueryProvider implements
     @Override
     public void remove(final BitbucketQuery query)
     {
-        throw new UnsupportedOperationException("Not supported");
+        if (!query.isUserQuery()) {
+            throw new UnsupportedOperationException("Not a user query");
+        }
+        query.remove();
     }
 
     /**
@@ -127,7 +152,7 @@ public final class BitbucketQueryProvider implements
     @Override
     public boolean canRename(final BitbucketQuery query)
     {
-        return false;
+        return query.isUserQuery();
     }
 
     /**
@@ -136,7 +161,11 @@ public final class BitbucketQueryProvider implements
     @Override
     public void rename(final BitbucketQuery query, final String newName)
     {
-        throw new UnsupportedOperationException("Not supported");
+        if (!query.isUserQuery()) {
+            throw new UnsupportedOperationException("Not a user query");
+        }
+        query.setDisplayName(newName);
+        query.save();
     }
 
     /**
@@ -169,18 +198,42 @@ public final class BitbucketQueryProvider implements
         /**
          * Tooltip text for the query.
          */
-        private String tooltip = null;
+        private volatile String tooltip = null;
 
         /**
          * Issue container for the query.
          */
         private IssueContainer<BitbucketIssue> issueContainer;
 
+        /**
+         * Issues shown in the issue container by identifier.
+         */
+        private final Map<Integer, ShownIssue> shownIssues = new HashMap<>();
+
+        /**
+         * Coordinator of refreshes.
+         */
+        private final RefreshCoordinator refreshCoordinator;
+
+        /**
+         * Task of the refresh in progress, or {@code null}.
+         */
+        private RequestProcessor.Task refreshTask = null;
+
+        /**
+         * Generation of the latest refresh.
+         * Only the latest refresh updates the issue container.
+         */
+        private volatile int refreshGeneration = 0;
+
         /**
          * Initializes the object but denies public instantiation.
+         *
+         * @param refreshCoordinator a coordinator of refreshes
          */
-        Descriptor()
+        Descriptor(final RefreshCoordinator refreshCoordinator)
         {
+            this.refreshCoordinator = refreshCoordinator;
         }
 
         /**
@@ -211,27 +264,281 @@ public final class BitbucketQueryProvider implements
         public void setIssueContainer(
             final IssueContainer<BitbucketIssue> newValue)
         {
-            issueContainer = newValue;
+            synchronized (shownIssues) {
+                shownIssues.clear();
+                issueContainer = newValue;
+            }
         }
 
         /**
-         * Refreshes the query.
+         * Refreshes the query in the background.
+         * A refresh in progress is cancelled first.
+         * If any issues are stored for the query, they are shown at once
+         * and synchronized incrementally; otherwise issues are shown page by
+         * page as they are fetched.
          *
          * @param query the query
          */
-        public void refresh(final BitbucketQuery query)
+        public synchronized void refresh(final BitbucketQuery query)
+        {
+            cancelRefresh();
+            IssueContainer<BitbucketIssue> container = issueContainer;
+            if (container != null) {
+                int generation = ++refreshGeneration;
+                refreshTask = refreshCoordinator.post(
+                    () -> refresh(query, new Target(container, generation)));
+            }
+        }
+
+        /**
+         * Cancels the refresh in progress if any.
+         *
+         * @return {@code true}
+         */
+        private synchronized boolean cancelRefresh()
         {
-            if (issueContainer != null) {
-                issueContainer.refreshingStarted();
-                try {
-                    issueContainer.clear();
-                    query.issues().forEach(
-                        (issue) -> issueContainer.add(issue));
+            if (refreshTask != null) {
+                refreshTask.cancel();
+                refreshTask = null;
+            }
+            return true;
+        }
+
+        /**
+         * Refreshes the query into an issue container.
+         * Only the issues added, changed or removed since the last refresh
+         * are updated in the issue container.
+         * The issues shown are locked only while each difference is
+         * applied, so that the issue container can be replaced during the
+         * refresh; the rest of the refresh is then discarded, as it is if
+         * another refresh has started.
+         * If the refresh fails, the tooltip text tells so.
+         *
+         * @param query the query
+         * @param target the target of the refresh
+         */
+        private void refresh(final BitbucketQuery query, final Target target)
+        {
+            IssueContainer<BitbucketIssue> container = target.container;
+            ProgressHandle progress = ProgressHandle.createHandle(
+                "Refreshing " + query.getDisplayName(), this::cancelRefresh);
+            progress.start();
+            container.refreshingStarted();
+            try {
+                Collection<BitbucketIssue> storedIssues =
+                    query.storedIssues();
+                if (storedIssues != null) {
+                    update(target, storedIssues);
+                    update(target, query.syncIssues());
                 }
-                finally {
-                    issueContainer.refreshingFinished();
+                else {
+                    Set<Integer> ids = new HashSet<>();
+                    query.issues((page) -> {
+                        merge(target, page);
+                        page.forEach((issue) -> ids.add(issue.getId()));
+                    });
+                    retain(target, ids);
                 }
+
+                tooltip = null;
+                if (query.isOffline()) {
+                    tooltip = "Offline; showing stored issues";
+                    progress.progress(tooltip);
+                }
+            }
+            catch (CancellationException exception) {
+                LOGGER.log(Level.FINE, "Refresh cancelled", exception);
+            }
+            catch (WebApplicationException | ProcessingException
+                | IllegalStateException exception) {
+                LOGGER.log(Level.INFO, "Refresh failed", exception);
+                if (query.isOffline()) {
+                    tooltip = "Offline; showing stored issues";
+                }
+                else {
+                    tooltip = "Refresh failed: " + exception.getMessage();
+                }
+                progress.progress(tooltip);
+            }
+            finally {
+                container.refreshingFinished();
+                progress.finish();
             }
         }
+
+        /**
+         * Updates an issue container to show exactly the given issues.
+         *
+         * @param target the target of a refresh
+         * @param issues issues to show
+         */
+        private void update(
+            final Target target, final Collection<BitbucketIssue> issues)
+        {
+            Set<Integer> ids = new HashSet<>();
+            issues.forEach((issue) -> ids.add(issue.getId()));
+            merge(target, issues);
+            retain(target, ids);
+        }
+
+        /**
+         * Returns {@code true} if a refresh target is current.
+         *
+         * @param target the target of a refresh
+         * @return {@code true} if the target is current; {@code false}
+         * otherwise
+         */
+        private boolean isCurrent(final Target target)
+        {
+            assert Thread.holdsLock(shownIssues);
+            return target.container == issueContainer
+                && target.generation == refreshGeneration;
+        }
+
+        /**
+         * Merges issues into an issue container.
+         * New issues are added and changed ones are replaced.
+         * Nothing is done unless the target is current.
+         *
+         * @param target the target of a refresh
+         * @param issues issues to merge
+         */
+        private void merge(
+            final Target target, final Collection<BitbucketIssue> issues)
+        {
+            List<ShownIssue> newShownIssues = new ArrayList<>(issues.size());
+            for (BitbucketIssue issue : issues) {
+                newShownIssues.add(new ShownIssue(issue));
+            }
+
+            List<BitbucketIssue> removed = new ArrayList<>();
+            List<BitbucketIssue> added = new ArrayList<>();
+            synchronized (shownIssues) {
+                if (!isCurrent(target)) {
+                    return;
+                }
+                for (ShownIssue shownIssue : newShownIssues) {
+                    ShownIssue oldShownIssue = shownIssues.put(
+                        shownIssue.issue.getId(), shownIssue);
+                    if (oldShownIssue == null) {
+                        added.add(shownIssue.issue);
+                    }
+                    else if (!oldShownIssue.equals(shownIssue)) {
+                        removed.add(oldShownIssue.issue);
+                        added.add(shownIssue.issue);
+                    }
+                }
+            }
+
+            if (!removed.isEmpty()) {
+                target.container.remove(
+                    removed.toArray(new BitbucketIssue[0]));
+            }
+            if (!added.isEmpty()) {
+                target.container.add(added.toArray(new BitbucketIssue[0]));
+            }
+        }
+
+        /**
+         * Removes issues from an issue container except the given ones.
+         * Nothing is done unless the target is current.
+         *
+         * @param target the target of a refresh
+         * @param ids identifiers of the issues to retain
+         */
+        private void retain(final Target target, final Set<Integer> ids)
+        {
+            List<BitbucketIssue> removed = new ArrayList<>();
+            synchronized (shownIssues) {
+                if (!isCurrent(target)) {
+                    return;
+                }
+                shownIssues.values().removeIf((shownIssue) -> {
+                    boolean value = !ids.contains(shownIssue.issue.getId());
+                    if (value) {
+                        removed.add(shownIssue.issue);
+                    }
+                    return value;
+                });
+            }
+
+            if (!removed.isEmpty()) {
+                target.container.remove(
+                    removed.toArray(new BitbucketIssue[0]));
+            }
+        }
+    }
+
+    /**
+     * Target of a refresh.
+     */
+    private static final class Target
+    {
+        /**
+         * Issue container to update.
+         */
+        private final IssueContainer<BitbucketIssue> container;
+
+        /**
+         * Generation of the refresh.
+         */
+        private final int generation;
+
+        /**
+         * Initializes the object.
+         *
+         * @param container an issue container to update
+         * @param generation the generation of the refresh
+         */
+        Target(
+            final IssueContainer<BitbucketIssue> container,
+            final int generation)
+        {
+            this.container = container;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Issue shown in an issue container with the hash of its content.
+     */
+    private static final class ShownIssue
+    {
+        /**
+         * Issue shown.
+         */
+        private final BitbucketIssue issue;
+
+        /**
+         * Hash of the content of the issue when shown.
+         */
+        private final int contentHash;
+
+        /**
+         * Initializes the object.
+         *
+         * @param issue an issue shown
+         */
+        ShownIssue(final BitbucketIssue issue)
+        {
+            this.issue = issue;
+            this.contentHash = IssueRecord.of(issue).hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object object)
+        {
+            if (!(object instanceof ShownIssue)) {
+                return false;
+            }
+            ShownIssue other = (ShownIssue) object;
+            return issue == other.issue && contentHash == other.contentHash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return contentHash;
+        }
     }
 }
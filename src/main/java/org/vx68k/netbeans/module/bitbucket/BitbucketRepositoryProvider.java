@@ -24,17 +24,16 @@ import java.awt.Image;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import javax.swing.JOptionPane;
 import org.netbeans.modules.bugtracking.spi.RepositoryController;
 import org.netbeans.modules.bugtracking.spi.RepositoryInfo;
@@ -42,6 +41,7 @@ import org.netbeans.modules.bugtracking.spi.RepositoryProvider;
 import org.vx68k.bitbucket.api.BitbucketIssue;
 import org.vx68k.bitbucket.api.BitbucketIssueTracker;
 import org.vx68k.bitbucket.api.client.BitbucketClient;
+import org.vx68k.netbeans.module.bitbucket.RequestScheduler.Lane;
 import org.vx68k.netbeans.module.bitbucket.ui.BitbucketRepositoryController;
 
 /**
@@ -60,21 +60,43 @@ public final class BitbucketRepositoryProvider implements
         Pattern.compile("([^/]+)/([^/]+)");
 
     /**
-     * Filter expression for open tasks.
+     * Registry of the shared clients.
      */
-    private static final String OPEN_ISSUES_FILTER = "state <= \"open\"";
+    private final BitbucketClientRegistry clientRegistry;
 
     /**
-     * Map for descriptors.
+     * Registry of adapters.
      */
-    private final Map<BitbucketIssueTrackerProxy, Adapter> adapterMap;
+    private final WeakRegistry<BitbucketIssueTrackerProxy, Adapter> adapters;
+
+    /**
+     * Repository that resolved issues last, to which unqualified issue
+     * references are prefetched.
+     */
+    private volatile WeakReference<BitbucketIssueTrackerProxy>
+        lastRepository = new WeakReference<>(null);
 
     /**
      * Initializes the object.
+     *
+     * @param clientRegistry a registry of the shared clients
      */
-    protected BitbucketRepositoryProvider()
+    protected BitbucketRepositoryProvider(
+        final BitbucketClientRegistry clientRegistry)
     {
-        this.adapterMap = new WeakHashMap<>();
+        this.clientRegistry = clientRegistry;
+        this.adapters = new WeakRegistry<>();
+        // Repositories served from their stores while offline are
+        // revalidated once the server is reachable again.
+        clientRegistry.getConnectivityMonitor().addListener(() -> {
+            RefreshCoordinator coordinator =
+                clientRegistry.getRefreshCoordinator();
+            adapters.forEach((repository, adapter) -> {
+                if (adapter.getId() != null) {
+                    coordinator.schedule(repository);
+                }
+            });
+        });
     }
 
     /**
@@ -85,17 +107,88 @@ public final class BitbucketRepositoryProvider implements
      */
     protected Adapter getAdapter(final BitbucketIssueTrackerProxy repository)
     {
-        Adapter value = adapterMap.get(repository);
-        if (value == null) {
-            value = new Adapter(repository);
-            adapterMap.put(repository, value);
+        return adapters.computeIfAbsent(
+            repository, (key) -> new Adapter(key, clientRegistry));
+    }
+
+    /**
+     * Returns the repository for a full name.
+     *
+     * @param fullName a full name of a repository
+     * @return the repository if found; {@code null} otherwise
+     */
+    private BitbucketIssueTrackerProxy findRepository(final String fullName)
+    {
+        AtomicReference<BitbucketIssueTrackerProxy> value =
+            new AtomicReference<>();
+        adapters.forEach((repository, adapter) -> {
+            if (fullName.equalsIgnoreCase(adapter.getFullName())) {
+                value.compareAndSet(null, repository);
+            }
+        });
+        return value.get();
+    }
+
+    /**
+     * Returns {@code true} if the server is considered reachable.
+     *
+     * @return {@code true} if online; {@code false} otherwise
+     */
+    boolean isOnline()
+    {
+        return clientRegistry.getConnectivityMonitor().isOnline();
+    }
+
+    /**
+     * Parses an issue number.
+     *
+     * @param number an issue number in decimal
+     * @return the issue number if valid; {@code null} otherwise
+     */
+    private static Integer parseNumber(final String number)
+    {
+        try {
+            return Integer.valueOf(number);
         }
-        return value;
+        catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Prefetches issues into the cache.
+     * Qualified identifiers are resolved with the repositories of their
+     * names, and the others with the repository that resolved issues last.
+     * Identifiers that are not valid issue numbers are skipped.
+     *
+     * @param ids identifiers of the issues as returned by the issue finder
+     */
+    void prefetchIssues(final Collection<String> ids)
+    {
+        Map<BitbucketIssueTrackerProxy, List<Integer>> numbers =
+            new LinkedHashMap<>();
+        for (String id : ids) {
+            BitbucketIssueTrackerProxy repository = lastRepository.get();
+            String number = id;
+            int hash = id.lastIndexOf('#');
+            if (hash >= 0) {
+                repository = findRepository(id.substring(0, hash));
+                number = id.substring(hash + 1);
+            }
+            Integer value = parseNumber(number);
+            if (repository != null && value != null) {
+                numbers.computeIfAbsent(repository, (key) -> new ArrayList<>())
+                    .add(value);
+            }
+        }
+        numbers.forEach(BitbucketIssueTrackerProxy::prefetchIssues);
     }
 
     /**
      * Sets the properties of a Bitbucket Cloud repository according to a
      * {@link RepositoryInfo} object.
+     * No call is made to the server; the repository is resolved on first
+     * use or by the background warmup refresh.
      *
      * @param repository a Bitbucket Cloud repository
      * @param info a {@link RepositoryInfo} object
@@ -110,7 +203,8 @@ public final class BitbucketRepositoryProvider implements
         adapter.setDisplayName(info.getDisplayName());
         adapter.setTooltip(info.getTooltip());
 
-        repository.setTarget(adapter.getIssueTracker());
+        adapter.bindRepository();
+        clientRegistry.getRefreshCoordinator().schedule(repository);
     }
 
     /**
@@ -146,18 +240,41 @@ public final class BitbucketRepositoryProvider implements
     @Override
     public void removed(final BitbucketIssueTrackerProxy repository)
     {
+        clientRegistry.getRefreshCoordinator().cancel(repository);
+        Adapter adapter = getAdapter(repository);
+        adapter.deleteIssueStore();
+        adapter.deleteQueryRegistry();
     }
 
     /**
      * {@inheritDoc}
+     * <p>An identifier qualified with a repository name, such as
+     * {@code owner/repo#123}, is resolved only if the name is that of the
+     * repository, and an identifier that is not a valid issue number is
+     * skipped.</p>
      */
     @Override
     public Collection<BitbucketIssue> getIssues(
         final BitbucketIssueTrackerProxy repository, final String... ids)
     {
-        return Arrays.stream(ids)
-            .map((id) -> repository.getIssue(Integer.parseInt(id)))
-            .collect(Collectors.toList());
+        lastRepository = new WeakReference<>(repository);
+        String fullName = getAdapter(repository).getFullName();
+        List<Integer> numbers = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            String number = id;
+            int hash = id.lastIndexOf('#');
+            if (hash >= 0) {
+                if (!id.substring(0, hash).equalsIgnoreCase(fullName)) {
+                    continue;
+                }
+                number = id.substring(hash + 1);
+            }
+            Integer value = parseNumber(number);
+            if (value != null) {
+                numbers.add(value);
+            }
+        }
+        return repository.getIssues(numbers);
     }
 
     /**
@@ -167,7 +284,7 @@ public final class BitbucketRepositoryProvider implements
     public BitbucketQuery createQuery(
         final BitbucketIssueTrackerProxy repository)
     {
-        return new BitbucketQuery(repository);
+        return getAdapter(repository).getQueryRegistry().createQuery();
     }
 
     /**
@@ -205,18 +322,7 @@ public final class BitbucketRepositoryProvider implements
     public Collection<BitbucketQuery> getQueries(
         final BitbucketIssueTrackerProxy repository)
     {
-        List<BitbucketQuery> value = new ArrayList<>();
-
-        BitbucketQuery allIssues = new BitbucketQuery(repository);
-        allIssues.setDisplayName("All Issues");
-        value.add(allIssues);
-
-        BitbucketQuery openIssues = new BitbucketQuery(repository);
-        openIssues.setDisplayName("Open Issues");
-        openIssues.setFilter(OPEN_ISSUES_FILTER);
-        value.add(openIssues);
-
-        return value;
+        return getAdapter(repository).getQueryRegistry().getQueries();
     }
 
     /**
@@ -226,7 +332,7 @@ public final class BitbucketRepositoryProvider implements
     public Collection<BitbucketIssue> simpleSearch(
         final BitbucketIssueTrackerProxy repository, final String criteria)
     {
-        return Collections.emptyList();
+        return repository.search(criteria);
     }
 
     /**
@@ -284,9 +390,9 @@ public final class BitbucketRepositoryProvider implements
         private final WeakReference<BitbucketIssueTrackerProxy> repository;
 
         /**
-         * Bitbucket API client for the repository.
+         * Registry from which the Bitbucket API client is borrowed.
          */
-        private final BitbucketClient bitbucketClient;
+        private final BitbucketClientRegistry clientRegistry;
 
         /**
          * Property change support object.
@@ -313,6 +419,17 @@ public final class BitbucketRepositoryProvider implements
          */
         private String tooltip = null;
 
+        /**
+         * Issue store for the repository.
+         */
+        private IssueStore issueStore = null;
+
+        /**
+         * Issue tracker resolved last with its full name, or {@code null}.
+         */
+        private volatile Map.Entry<String, BitbucketIssueTracker>
+            resolvedIssueTracker = null;
+
         /**
          * Controller object.
          */
@@ -322,11 +439,14 @@ public final class BitbucketRepositoryProvider implements
          * Initializes the object.
          *
          * @param repository a repository
+         * @param clientRegistry a registry of the shared clients
          */
-        protected Adapter(final BitbucketIssueTrackerProxy repository)
+        protected Adapter(
+            final BitbucketIssueTrackerProxy repository,
+            final BitbucketClientRegistry clientRegistry)
         {
             this.repository = new WeakReference<>(repository);
-            this.bitbucketClient = new BitbucketClient();
+            this.clientRegistry = clientRegistry;
             this.support = new PropertyChangeSupport(this);
         }
 
@@ -352,6 +472,7 @@ public final class BitbucketRepositoryProvider implements
 
         /**
          * Sets the identifier for the repository.
+         * A query registry created before is bound to the identifier.
          *
          * @param newValue a new value of the identifier
          */
@@ -360,6 +481,13 @@ public final class BitbucketRepositoryProvider implements
             String oldValue = id;
             id = newValue;
             support.firePropertyChange("id", oldValue, newValue);
+
+            // Queries saved before the identifier was set are kept.
+            BitbucketIssueTrackerProxy value = getRepository();
+            if (newValue != null && value != null
+                && value.getQueryRegistry() != null) {
+                value.getQueryRegistry().bind(newValue);
+            }
         }
 
         /**
@@ -435,19 +563,208 @@ public final class BitbucketRepositoryProvider implements
 
         /**
          * Returns the issue tracker for the full name if found.
+         * If it has already been resolved by {@link #resolveIssueTracker},
+         * the server is not called again.
          *
          * @return the issue tracker for the full name if found; [@code null}
          * otherwise
          */
         public BitbucketIssueTracker getIssueTracker()
+        {
+            Map.Entry<String, BitbucketIssueTracker> resolved =
+                resolvedIssueTracker;
+            if (resolved != null && resolved.getKey().equals(fullName)) {
+                return resolved.getValue();
+            }
+            // The summary client of the repository makes this call through
+            // the scheduler and the connectivity monitor.
+            return fetchIssueTracker(fullName);
+        }
+
+        /**
+         * Returns {@code true} if the server is considered reachable.
+         *
+         * @return {@code true} if online; {@code false} otherwise
+         */
+        public boolean isOnline()
+        {
+            return clientRegistry.getConnectivityMonitor().isOnline();
+        }
+
+        /**
+         * Resolves the issue tracker for a full name with the server and
+         * remembers it, so that the repository can be bound to it later
+         * without calling the server again.
+         * The call is made in the interactive lane of the request scheduler
+         * and through the connectivity monitor.
+         * This method blocks and must not be called on the event dispatch
+         * thread.
+         *
+         * @param name a full name of a repository
+         * @return the issue tracker for the full name if found; [@code null}
+         * otherwise
+         * @throws javax.ws.rs.ProcessingException if the server is
+         * unreachable
+         */
+        public BitbucketIssueTracker resolveIssueTracker(final String name)
+        {
+            ConnectivityMonitor monitor =
+                clientRegistry.getConnectivityMonitor();
+            monitor.check();
+            return clientRegistry.getRequestScheduler().execute(
+                Lane.INTERACTIVE,
+                () -> monitor.execute(() -> fetchIssueTracker(name)));
+        }
+
+        /**
+         * Resolves the issue tracker for a full name with the server and
+         * remembers it.
+         *
+         * @param name a full name of a repository
+         * @return the issue tracker for the full name if found; [@code null}
+         * otherwise
+         */
+        private BitbucketIssueTracker fetchIssueTracker(final String name)
+        {
+            Matcher m = REPOSITORY_NAME_PATTERN.matcher(name);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Invalid repository name");
+            }
+
+            BitbucketClient bitbucketClient =
+                clientRegistry.getBitbucketClient();
+            BitbucketIssueTracker value =
+                bitbucketClient.getRepository(m.group(1), m.group(2))
+                    .getIssueTracker();
+            resolvedIssueTracker =
+                new AbstractMap.SimpleImmutableEntry<>(name, value);
+            return value;
+        }
+
+        /**
+         * Finds the full names of the indexed repositories that start with
+         * a prefix.
+         * This method does not call the server.
+         *
+         * @param prefix a prefix
+         * @param limit the maximum number of full names to find
+         * @return the full names found, in order
+         */
+        public List<String> findRepositoryNames(
+            final String prefix, final int limit)
+        {
+            return clientRegistry.getRepositoryIndex().find(prefix, limit);
+        }
+
+        /**
+         * Indexes the repositories of the owner of a repository name in the
+         * background if it has an owner part.
+         *
+         * @param name a repository name being typed
+         * @param callback an action to run if the index has changed
+         */
+        public void indexRepositoryNames(
+            final String name, final Runnable callback)
+        {
+            int slash = name.indexOf('/');
+            if (slash > 0) {
+                clientRegistry.getRepositoryIndex().refresh(
+                    name.substring(0, slash), callback);
+            }
+        }
+
+        /**
+         * Returns a client for the issue summaries of the repository of the
+         * full name.
+         *
+         * @return a client for the issue summaries
+         */
+        IssueSummaryClient getSummaryClient()
         {
             Matcher m = REPOSITORY_NAME_PATTERN.matcher(fullName);
             if (!m.matches()) {
                 throw new IllegalArgumentException("Invalid repository name");
             }
 
-            return bitbucketClient.getRepository(m.group(1), m.group(2))
-                .getIssueTracker();
+            return new IssueSummaryClient(
+                clientRegistry.getHttpClient(), m.group(1), m.group(2),
+                clientRegistry.getRequestScheduler(),
+                clientRegistry.getConnectivityMonitor(),
+                this::getIssueTracker);
+        }
+
+        /**
+         * Returns the issue store for the identifier and the full name.
+         * If the full name has changed since the issue store was created,
+         * the issue store is deleted with its records, results and
+         * watermarks, and a new one is created for the full name.
+         *
+         * @return the issue store for the identifier and the full name
+         */
+        IssueStore getIssueStore()
+        {
+            if (issueStore != null && !issueStore.belongsTo(fullName)) {
+                issueStore.delete();
+                issueStore = null;
+            }
+            if (issueStore == null) {
+                issueStore = new IssueStore(id, fullName);
+            }
+            return issueStore;
+        }
+
+        /**
+         * Deletes the issue store for the identifier.
+         */
+        void deleteIssueStore()
+        {
+            if (id != null) {
+                getIssueStore().delete();
+            }
+            issueStore = null;
+        }
+
+        /**
+         * Returns the query registry for the repository.
+         *
+         * @return the query registry for the repository
+         */
+        synchronized QueryRegistry getQueryRegistry()
+        {
+            BitbucketIssueTrackerProxy value = getRepository();
+            QueryRegistry queryRegistry = value.getQueryRegistry();
+            if (queryRegistry == null) {
+                queryRegistry = new QueryRegistry(value, id,
+                    () -> support.firePropertyChange(
+                        RepositoryProvider.EVENT_QUERY_LIST_CHANGED,
+                        null, null));
+                value.setQueryRegistry(queryRegistry);
+            }
+            return queryRegistry;
+        }
+
+        /**
+         * Deletes the query registry for the repository with its user
+         * queries.
+         */
+        synchronized void deleteQueryRegistry()
+        {
+            if (id != null) {
+                getQueryRegistry().delete();
+            }
+            getRepository().setQueryRegistry(null);
+        }
+
+        /**
+         * Binds the repository to the issue tracker for the full name and to
+         * the issue store for the identifier and the full name.
+         * The issue tracker is resolved when the repository first needs it,
+         * so that this method makes no call to the server.
+         */
+        public void bindRepository()
+        {
+            getRepository().bind(getIssueStore(), getSummaryClient(),
+                clientRegistry.getRefreshCoordinator());
         }
 
         /**
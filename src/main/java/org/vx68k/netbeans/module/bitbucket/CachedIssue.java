@@ -0,0 +1,449 @@
+/*
+ * CachedIssue.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.awt.EventQueue;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.vx68k.bitbucket.api.BitbucketContent;
+import org.vx68k.bitbucket.api.BitbucketIssue;
+
+/**
+ * Cached issue backed by an {@link IssueRecord}.
+ * <p>An object of this class is the invocation handler of a dynamic
+ * {@link BitbucketIssue} proxy.
+ * The properties held in the record, including the raw content and the
+ * time of the last update, are answered locally, and any other methods
+ * are forwarded to the full issue, which is loaded on demand.
+ * The full issue is never loaded on the event dispatch thread: there it
+ * is loaded in the background, the methods return default values until
+ * it is loaded, and the load listener is notified when it is.
+ * The proxy keeps its identity while the record and the full issue are
+ * replaced with newer ones.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class CachedIssue implements InvocationHandler
+{
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(CachedIssue.class.getName());
+
+    /**
+     * Function to load the full issue for an identifier.
+     */
+    private final IntFunction<BitbucketIssue> loader;
+
+    /**
+     * Executor of background loads.
+     */
+    private final Executor executor;
+
+    /**
+     * Function to refresh the issue for an identifier.
+     */
+    private final IntPredicate refresher;
+
+    /**
+     * Record of the issue.
+     */
+    private volatile IssueRecord record;
+
+    /**
+     * Full issue, or {@code null} if not loaded yet.
+     */
+    private volatile BitbucketIssue detail;
+
+    /**
+     * {@code true} if the record has been validated with the server.
+     */
+    private volatile boolean validated = false;
+
+    /**
+     * {@code true} while the full issue is being loaded in the background.
+     */
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    /**
+     * Listener notified when the full issue is loaded in the background,
+     * or {@code null} if none.
+     */
+    private volatile Runnable loadListener = null;
+
+    /**
+     * Initializes the object.
+     *
+     * @param record a record of the issue
+     * @param loader a function to load the full issue for an identifier,
+     * which returns {@code null} if it is not available
+     * @param executor an executor of background loads
+     * @param refresher a function to refresh the issue for an identifier,
+     * which returns {@code true} if the issue has changed
+     */
+    private CachedIssue(
+        final IssueRecord record, final IntFunction<BitbucketIssue> loader,
+        final Executor executor, final IntPredicate refresher)
+    {
+        this.record = record;
+        this.loader = loader;
+        this.executor = executor;
+        this.refresher = refresher;
+    }
+
+    /**
+     * Creates a new cached issue.
+     *
+     * @param record a record of the issue
+     * @param loader a function to load the full issue for an identifier,
+     * which returns {@code null} if it is not available
+     * @param executor an executor of background loads
+     * @param refresher a function to refresh the issue for an identifier,
+     * which returns {@code true} if the issue has changed
+     * @return a new cached issue
+     */
+    static BitbucketIssue newIssue(
+        final IssueRecord record, final IntFunction<BitbucketIssue> loader,
+        final Executor executor, final IntPredicate refresher)
+    {
+        return (BitbucketIssue) Proxy.newProxyInstance(
+            BitbucketIssue.class.getClassLoader(),
+            new Class<?>[] {BitbucketIssue.class},
+            new CachedIssue(record, loader, executor, refresher));
+    }
+
+    /**
+     * Returns the handler of a cached issue.
+     *
+     * @param issue an issue
+     * @return the handler of the issue if it is a cached issue; {@code null}
+     * otherwise
+     */
+    static CachedIssue getHandler(final BitbucketIssue issue)
+    {
+        CachedIssue value = null;
+        if (Proxy.isProxyClass(issue.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(issue);
+            if (handler instanceof CachedIssue) {
+                value = (CachedIssue) handler;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the record of the issue.
+     *
+     * @return the record of the issue
+     */
+    IssueRecord getRecord()
+    {
+        return record;
+    }
+
+    /**
+     * Sets the record of the issue.
+     *
+     * @param newValue a new value of the record
+     */
+    void setRecord(final IssueRecord newValue)
+    {
+        record = newValue;
+    }
+
+    /**
+     * Returns {@code true} if the full issue is loaded.
+     *
+     * @return {@code true} if the full issue is loaded; {@code false}
+     * otherwise
+     */
+    boolean isLoaded()
+    {
+        return detail != null;
+    }
+
+    /**
+     * Returns {@code true} if the record has been validated with the
+     * server.
+     *
+     * @return {@code true} if the record has been validated; {@code false}
+     * otherwise
+     */
+    boolean isValidated()
+    {
+        return validated;
+    }
+
+    /**
+     * Marks the record as validated with the server.
+     */
+    void setValidated()
+    {
+        validated = true;
+    }
+
+    /**
+     * Refreshes the issue from the server.
+     *
+     * @return {@code true} if the issue has changed; {@code false}
+     * otherwise
+     */
+    boolean refresh()
+    {
+        return refresher.test(record.getId());
+    }
+
+    /**
+     * Sets the full issue.
+     *
+     * @param newValue a new value of the full issue
+     */
+    void setDetail(final BitbucketIssue newValue)
+    {
+        detail = newValue;
+    }
+
+    /**
+     * Sets the listener notified when the full issue is loaded in the
+     * background.
+     *
+     * @param newValue a new value of the listener, or {@code null}
+     */
+    void setLoadListener(final Runnable newValue)
+    {
+        loadListener = newValue;
+    }
+
+    /**
+     * Returns the full issue, loading it if necessary.
+     * On the event dispatch thread, the full issue is not loaded but
+     * requested in the background.
+     *
+     * @return the full issue, or {@code null} if it is not available yet
+     */
+    private BitbucketIssue getDetail()
+    {
+        BitbucketIssue value = detail;
+        if (value == null) {
+            if (EventQueue.isDispatchThread()) {
+                requestDetail();
+            }
+            else {
+                value = loader.apply(record.getId());
+                if (value != null) {
+                    detail = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Requests the full issue to be loaded in the background unless it is
+     * already requested.
+     */
+    private void requestDetail()
+    {
+        if (loading.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                try {
+                    BitbucketIssue value = loader.apply(record.getId());
+                    if (value != null) {
+                        detail = value;
+                        Runnable listener = loadListener;
+                        if (listener != null) {
+                            listener.run();
+                        }
+                    }
+                }
+                catch (RuntimeException exception) {
+                    LOGGER.log(Level.FINE, "Failed to load an issue",
+                        exception);
+                }
+                finally {
+                    loading.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the content of the issue.
+     * The raw content is answered from the record, and the rendered one
+     * from the full issue if it is available.
+     *
+     * @return the content of the issue, or {@code null} if not available
+     */
+    private BitbucketContent getContent()
+    {
+        String raw = record.getContent();
+        if (raw == null) {
+            BitbucketIssue value = getDetail();
+            if (value == null) {
+                return null;
+            }
+            return value.getContent();
+        }
+        return new RecordContent(raw);
+    }
+
+    /**
+     * Returns the time when the issue was updated last as a date-time.
+     *
+     * @return the time when the issue was updated last, or {@code null} if
+     * unknown
+     */
+    private OffsetDateTime getUpdatedDateTime()
+    {
+        String updatedOn = record.getUpdatedOn();
+        if (updatedOn == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(updatedOn);
+        }
+        catch (DateTimeParseException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the default value of a type, which is returned by a method
+     * while the full issue is not available.
+     *
+     * @param type a type
+     * @return the default value of the type
+     */
+    private static Object defaultValue(final Class<?> type)
+    {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+
+    @Override
+    public Object invoke(
+        final Object proxy, final Method method, final Object[] args)
+        throws Throwable
+    {
+        if (args == null || args.length == 0) {
+            switch (method.getName()) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "#" + record.getId();
+            case "getId":
+                return record.getId();
+            case "getTitle":
+                return record.getTitle();
+            case "getState":
+                return record.getState();
+            case "getKind":
+                return record.getKind();
+            case "getPriority":
+                return record.getPriority();
+            case "getContent":
+                return getContent();
+            case "getUpdatedOn":
+                if (method.getReturnType() == String.class) {
+                    return record.getUpdatedOn();
+                }
+                if (method.getReturnType() == OffsetDateTime.class) {
+                    return getUpdatedDateTime();
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        else if ("equals".equals(method.getName()) && args.length == 1) {
+            return proxy == args[0];
+        }
+
+        BitbucketIssue value = getDetail();
+        if (value == null) {
+            return defaultValue(method.getReturnType());
+        }
+        try {
+            return method.invoke(value, args);
+        }
+        catch (InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Content answered from the raw content in the record.
+     * The rendered content is taken from the full issue if it is loaded.
+     */
+    private final class RecordContent implements BitbucketContent
+    {
+        /**
+         * Raw content.
+         */
+        private final String raw;
+
+        /**
+         * Initializes the object.
+         *
+         * @param raw the raw content
+         */
+        RecordContent(final String raw)
+        {
+            this.raw = raw;
+        }
+
+        @Override
+        public String getRaw()
+        {
+            return raw;
+        }
+
+        @Override
+        public String getHtml()
+        {
+            BitbucketIssue value = getDetail();
+            if (value == null || value.getContent() == null) {
+                return null;
+            }
+            return value.getContent().getHtml();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * ClientCloser.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import org.openide.modules.OnStop;
+
+/**
+ * Closes the shared clients when the module stops, so that pooled
+ * connections are released.
+ *
+ * @author Kaz Nishimura
+ */
+@OnStop
+public final class ClientCloser implements Runnable
+{
+    /**
+     * {@inheritDoc}
+     * <p>This implementation closes all the client registries.</p>
+     */
+    @Override
+    public void run()
+    {
+        BitbucketClientRegistry.closeAll();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * ConnectivityMonitor.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Response;
+import org.glassfish.jersey.client.ClientProperties;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Monitor of the connectivity to Bitbucket Cloud.
+ * <p>A request that fails to reach the server puts the monitor offline.
+ * While offline, requests fail at once instead of waiting for a socket
+ * timeout each, and the server is probed in the background at growing
+ * intervals with a {@code HEAD} request through the shared HTTP client, so
+ * that a probe takes the same proxy as the other requests.
+ * When a probe succeeds, the monitor goes back online and notifies its
+ * listeners.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class ConnectivityMonitor
+{
+    /**
+     * URI to probe.
+     */
+    private static final String PROBE_URI = "https://api.bitbucket.org/2.0";
+
+    /**
+     * Timeout in milliseconds to connect to the server or to read the
+     * response in a probe.
+     */
+    private static final int PROBE_TIMEOUT = 3000;
+
+    /**
+     * Delay in milliseconds before the first probe after going offline.
+     */
+    private static final int MIN_PROBE_DELAY = 5000;
+
+    /**
+     * Maximum delay in milliseconds between probes.
+     */
+    private static final int MAX_PROBE_DELAY = 5 * 60 * 1000;
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(ConnectivityMonitor.class.getName());
+
+    /**
+     * Request processor for probes.
+     */
+    private static final RequestProcessor PROBER =
+        new RequestProcessor(ConnectivityMonitor.class.getName());
+
+    /**
+     * HTTP client to probe the server.
+     */
+    private final Client client;
+
+    /**
+     * Task to probe the server.
+     */
+    private final RequestProcessor.Task probeTask;
+
+    /**
+     * Actions to run when the monitor goes back online.
+     */
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * {@code true} if the server is considered reachable.
+     */
+    private volatile boolean online = true;
+
+    /**
+     * Delay in milliseconds before the next probe.
+     */
+    private int probeDelay = MIN_PROBE_DELAY;
+
+    /**
+     * Initializes the object.
+     *
+     * @param client an HTTP client to probe the server
+     */
+    ConnectivityMonitor(final Client client)
+    {
+        this.client = client;
+        this.probeTask = PROBER.create(this::probe);
+    }
+
+    /**
+     * Returns {@code true} if the server is considered reachable.
+     *
+     * @return {@code true} if online; {@code false} otherwise
+     */
+    boolean isOnline()
+    {
+        return online;
+    }
+
+    /**
+     * Adds an action to run when the monitor goes back online.
+     *
+     * @param listener an action
+     */
+    void addListener(final Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes an action added by {@link #addListener}.
+     *
+     * @param listener an action
+     */
+    void removeListener(final Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Fails if the monitor is offline.
+     *
+     * @throws ProcessingException if offline
+     */
+    void check()
+    {
+        if (!online) {
+            throw new ProcessingException("Bitbucket Cloud is unreachable");
+        }
+    }
+
+    /**
+     * Makes a request, putting the monitor offline if it fails to reach
+     * the server.
+     *
+     * @param <T> type of the result
+     * @param request a supplier that makes the request
+     * @return the result of the request
+     * @throws ProcessingException if offline or the request failed to
+     * reach the server
+     */
+    <T> T execute(final Supplier<T> request)
+    {
+        check();
+        try {
+            return request.get();
+        }
+        catch (ProcessingException exception) {
+            if (exception.getCause() instanceof IOException) {
+                goOffline(exception);
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Puts the monitor offline and schedules a probe.
+     *
+     * @param cause the exception that showed the server unreachable
+     */
+    private synchronized void goOffline(final Exception cause)
+    {
+        if (online) {
+            LOGGER.log(Level.INFO, "Bitbucket Cloud is unreachable; going "
+                + "offline", cause);
+            online = false;
+            probeDelay = MIN_PROBE_DELAY;
+            probeTask.schedule(probeDelay);
+        }
+    }
+
+    /**
+     * Probes the server, going back online if it is reachable.
+     */
+    private void probe()
+    {
+        // Any response shows the server reachable.
+        try {
+            Response response = client.target(PROBE_URI)
+                .property(ClientProperties.CONNECT_TIMEOUT, PROBE_TIMEOUT)
+                .property(ClientProperties.READ_TIMEOUT, PROBE_TIMEOUT)
+                .request().head();
+            response.close();
+        }
+        catch (ProcessingException exception) {
+            synchronized (this) {
+                probeDelay = Math.min(probeDelay * 2, MAX_PROBE_DELAY);
+                probeTask.schedule(probeDelay);
+            }
+            LOGGER.log(Level.FINE, "Bitbucket Cloud is still unreachable",
+                exception);
+            return;
+        }
+
+        synchronized (this) {
+            online = true;
+        }
+        LOGGER.info("Bitbucket Cloud is reachable again; going online");
+        listeners.forEach(Runnable::run);
+    }
+}
@@ -0,0 +1,675 @@
+/*
+ * IssueFilter.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * Filter expression compiled for local evaluation against issue records.
+ * <p>The supported subset of the Bitbucket filter language consists of
+ * comparisons ({@code =}, {@code !=}, {@code <}, {@code <=}, {@code >},
+ * {@code >=}, {@code ~} and {@code !~}) of the fields {@code id},
+ * {@code title}, {@code state}, {@code kind}, {@code priority} and
+ * {@code updated_on}, combined with {@code AND}, {@code OR} and
+ * parentheses.</p>
+ * <p>Evaluation uses three-valued logic: a comparison on a value that is
+ * not held in a record is unknown, and so is any expression whose value
+ * depends on it.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueFilter
+{
+    /**
+     * Issue states in the order used by comparisons.
+     */
+    private static final List<String> STATES = Arrays.asList(
+        "new", "open", "resolved", "on hold", "invalid", "duplicate",
+        "wontfix", "closed");
+
+    /**
+     * Issue kinds in the order used by comparisons.
+     */
+    private static final List<String> KINDS =
+        Arrays.asList(BitbucketIssueProvider.KINDS);
+
+    /**
+     * Issue priorities in the order used by comparisons.
+     */
+    private static final List<String> PRIORITIES = Arrays.asList(
+        "trivial", "minor", "major", "critical", "blocker");
+
+    /**
+     * Root condition of the expression.
+     */
+    private final Condition condition;
+
+    /**
+     * Initializes the object.
+     *
+     * @param condition the root condition of the expression
+     */
+    private IssueFilter(final Condition condition)
+    {
+        this.condition = condition;
+    }
+
+    /**
+     * Compiles a filter expression.
+     *
+     * @param expression a filter expression
+     * @return the compiled filter
+     * @throws IllegalArgumentException if the expression is not valid or not
+     * supported for local evaluation
+     */
+    static IssueFilter compile(final String expression)
+    {
+        Parser parser = new Parser(expression);
+        return new IssueFilter(parser.parse());
+    }
+
+    /**
+     * Evaluates this filter against an issue record.
+     *
+     * @param record an issue record
+     * @return {@link Boolean#TRUE} if the record matches this filter,
+     * {@link Boolean#FALSE} if it does not, or {@code null} if that is
+     * unknown from the record
+     */
+    Boolean evaluate(final IssueRecord record)
+    {
+        return condition.evaluate(record);
+    }
+
+    /**
+     * Condition in a filter expression.
+     */
+    @FunctionalInterface
+    private interface Condition
+    {
+        /**
+         * Evaluates this condition against an issue record.
+         *
+         * @param record an issue record
+         * @return the value of this condition, or {@code null} if unknown
+         */
+        Boolean evaluate(IssueRecord record);
+    }
+
+    /**
+     * Returns a condition that is the conjunction of conditions.
+     *
+     * @param operands conditions
+     * @return the conjunction
+     */
+    private static Condition and(final List<Condition> operands)
+    {
+        Condition[] array = operands.toArray(new Condition[0]);
+        return (record) -> {
+            Boolean value = Boolean.TRUE;
+            for (Condition operand : array) {
+                Boolean operandValue = operand.evaluate(record);
+                if (Boolean.FALSE.equals(operandValue)) {
+                    return Boolean.FALSE;
+                }
+                if (operandValue == null) {
+                    value = null;
+                }
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Returns a condition that is the disjunction of conditions.
+     *
+     * @param operands conditions
+     * @return the disjunction
+     */
+    private static Condition or(final List<Condition> operands)
+    {
+        Condition[] array = operands.toArray(new Condition[0]);
+        return (record) -> {
+            Boolean value = Boolean.FALSE;
+            for (Condition operand : array) {
+                Boolean operandValue = operand.evaluate(record);
+                if (Boolean.TRUE.equals(operandValue)) {
+                    return Boolean.TRUE;
+                }
+                if (operandValue == null) {
+                    value = null;
+                }
+            }
+            return value;
+        };
+    }
+
+    /**
+     * Returns the rank of a value in an ordered list of values.
+     *
+     * @param values ordered values
+     * @param value a value
+     * @return the rank of the value
+     * @throws IllegalArgumentException if the value is not in the list
+     */
+    private static int rank(final List<String> values, final String value)
+    {
+        int index = values.indexOf(value.toLowerCase(Locale.ROOT));
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown value: " + value);
+        }
+        return index;
+    }
+
+    /**
+     * Parses a datetime value.
+     *
+     * @param text a datetime or date text
+     * @return the value in microseconds since the epoch
+     * @throws IllegalArgumentException if the text is not a datetime
+     */
+    private static long parseTime(final String text)
+    {
+        try {
+            Instant instant;
+            if (text.indexOf('T') >= 0) {
+                instant = OffsetDateTime.parse(text).toInstant();
+            }
+            else {
+                instant = LocalDate.parse(text).atStartOfDay(ZoneOffset.UTC)
+                    .toInstant();
+            }
+            return IssueRecord.toMicros(instant);
+        }
+        catch (DateTimeParseException | ArithmeticException exception) {
+            throw new IllegalArgumentException(
+                "Invalid datetime: " + text, exception);
+        }
+    }
+
+    /**
+     * Returns a condition for a comparison.
+     *
+     * @param field a field name
+     * @param operator a comparison operator
+     * @param literal a literal value
+     * @return the condition
+     * @throws IllegalArgumentException if the comparison is not supported
+     */
+    private static Condition compare(
+        final String field, final String operator, final String literal)
+    {
+        switch (field) {
+        case "id":
+            try {
+                long id = Long.parseLong(literal);
+                return compareOrdered(operator,
+                    (record) -> Long.compare(record.getId(), id));
+            }
+            catch (NumberFormatException exception) {
+                throw new IllegalArgumentException(
+                    "Invalid number: " + literal, exception);
+            }
+        case "title":
+            return compareText(operator, IssueRecord::getTitle, literal);
+        case "state":
+            return compareRanked(
+                operator, IssueRecord::getState, STATES, literal);
+        case "kind":
+            return compareRanked(
+                operator, IssueRecord::getKind, KINDS, literal);
+        case "priority":
+            return compareRanked(
+                operator, IssueRecord::getPriority, PRIORITIES, literal);
+        case "updated_on":
+            long time = parseTime(literal);
+            return compareOrdered(operator, (record) -> {
+                long updatedTime = record.getUpdatedTime();
+                if (updatedTime == IssueRecord.UNKNOWN_TIME) {
+                    return null;
+                }
+                return Long.compare(updatedTime, time);
+            });
+        default:
+            throw new IllegalArgumentException("Unsupported field: " + field);
+        }
+    }
+
+    /**
+     * Returns a condition for an ordered comparison.
+     *
+     * @param operator a comparison operator
+     * @param comparison a function that compares the field value of a
+     * record with the literal value, or returns {@code null} if unknown
+     * @return the condition
+     */
+    private static Condition compareOrdered(
+        final String operator,
+        final Function<IssueRecord, Integer> comparison)
+    {
+        switch (operator) {
+        case "=":
+            return test(comparison, (c) -> c == 0);
+        case "!=":
+            return test(comparison, (c) -> c != 0);
+        case "<":
+            return test(comparison, (c) -> c < 0);
+        case "<=":
+            return test(comparison, (c) -> c <= 0);
+        case ">":
+            return test(comparison, (c) -> c > 0);
+        case ">=":
+            return test(comparison, (c) -> c >= 0);
+        default:
+            throw new IllegalArgumentException(
+                "Unsupported operator: " + operator);
+        }
+    }
+
+    /**
+     * Returns a condition that tests the result of a comparison.
+     *
+     * @param comparison a comparison function
+     * @param test a test on the result of the comparison
+     * @return the condition
+     */
+    private static Condition test(
+        final Function<IssueRecord, Integer> comparison,
+        final IntPredicate test)
+    {
+        return (record) -> {
+            Integer c = comparison.apply(record);
+            if (c == null) {
+                return null;
+            }
+            return test.test(c);
+        };
+    }
+
+    /**
+     * Returns a condition for a comparison of a ranked field.
+     *
+     * @param operator a comparison operator
+     * @param getter a getter of the field
+     * @param values ranked values
+     * @param literal a literal value
+     * @return the condition
+     */
+    private static Condition compareRanked(
+        final String operator, final Function<IssueRecord, String> getter,
+        final List<String> values, final String literal)
+    {
+        if (operator.endsWith("~")) {
+            return compareText(operator, getter, literal);
+        }
+
+        int rank = rank(values, literal);
+        return compareOrdered(operator, (record) -> {
+            String value = getter.apply(record);
+            if (value == null) {
+                return null;
+            }
+            int index = values.indexOf(value);
+            if (index < 0) {
+                return null;
+            }
+            return Integer.compare(index, rank);
+        });
+    }
+
+    /**
+     * Returns a condition for a comparison of a text field.
+     *
+     * @param operator a comparison operator
+     * @param getter a getter of the field
+     * @param literal a literal value
+     * @return the condition
+     */
+    private static Condition compareText(
+        final String operator, final Function<IssueRecord, String> getter,
+        final String literal)
+    {
+        String lowerLiteral = literal.toLowerCase(Locale.ROOT);
+        switch (operator) {
+        case "~":
+            return (record) -> {
+                String value = getter.apply(record);
+                if (value == null) {
+                    return null;
+                }
+                return value.toLowerCase(Locale.ROOT).contains(lowerLiteral);
+            };
+        case "!~":
+            return (record) -> {
+                String value = getter.apply(record);
+                if (value == null) {
+                    return null;
+                }
+                return !value.toLowerCase(Locale.ROOT).contains(lowerLiteral);
+            };
+        default:
+            return compareOrdered(operator, (record) -> {
+                String value = getter.apply(record);
+                if (value == null) {
+                    return null;
+                }
+                return value.compareTo(literal);
+            });
+        }
+    }
+
+    /**
+     * Recursive-descent parser of filter expressions.
+     */
+    private static final class Parser
+    {
+        /**
+         * Tokens of the expression.
+         */
+        private final List<Token> tokens;
+
+        /**
+         * Index of the next token.
+         */
+        private int next = 0;
+
+        /**
+         * Initializes the object.
+         *
+         * @param expression a filter expression
+         */
+        Parser(final String expression)
+        {
+            this.tokens = tokenize(expression);
+        }
+
+        /**
+         * Parses the expression.
+         *
+         * @return the root condition
+         */
+        Condition parse()
+        {
+            Condition value = parseOr();
+            if (next != tokens.size()) {
+                throw new IllegalArgumentException(
+                    "Unexpected token: " + tokens.get(next).text);
+            }
+            return value;
+        }
+
+        /**
+         * Parses a disjunction.
+         *
+         * @return the condition
+         */
+        private Condition parseOr()
+        {
+            List<Condition> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (acceptKeyword("OR")) {
+                operands.add(parseAnd());
+            }
+            if (operands.size() == 1) {
+                return operands.get(0);
+            }
+            return or(operands);
+        }
+
+        /**
+         * Parses a conjunction.
+         *
+         * @return the condition
+         */
+        private Condition parseAnd()
+        {
+            List<Condition> operands = new ArrayList<>();
+            operands.add(parsePrimary());
+            while (acceptKeyword("AND")) {
+                operands.add(parsePrimary());
+            }
+            if (operands.size() == 1) {
+                return operands.get(0);
+            }
+            return and(operands);
+        }
+
+        /**
+         * Parses a parenthesized expression or a comparison.
+         *
+         * @return the condition
+         */
+        private Condition parsePrimary()
+        {
+            Token token = take();
+            if (token.kind == TokenKind.OPEN) {
+                Condition value = parseOr();
+                if (take().kind != TokenKind.CLOSE) {
+                    throw new IllegalArgumentException("Missing ')'");
+                }
+                return value;
+            }
+            if (token.kind != TokenKind.WORD) {
+                throw new IllegalArgumentException(
+                    "Unexpected token: " + token.text);
+            }
+
+            Token operator = take();
+            if (operator.kind != TokenKind.OPERATOR) {
+                throw new IllegalArgumentException(
+                    "Missing operator after " + token.text);
+            }
+            Token literal = take();
+            if (literal.kind != TokenKind.WORD
+                && literal.kind != TokenKind.STRING) {
+                throw new IllegalArgumentException(
+                    "Missing value after " + operator.text);
+            }
+            if (literal.kind == TokenKind.WORD
+                && "null".equalsIgnoreCase(literal.text)) {
+                throw new IllegalArgumentException(
+                    "Comparison with null is not supported");
+            }
+            return compare(token.text, operator.text, literal.text);
+        }
+
+        /**
+         * Takes the next token.
+         *
+         * @return the next token
+         */
+        private Token take()
+        {
+            if (next == tokens.size()) {
+                throw new IllegalArgumentException(
+                    "Unexpected end of expression");
+            }
+            return tokens.get(next++);
+        }
+
+        /**
+         * Takes the next token if it is a keyword.
+         *
+         * @param keyword a keyword
+         * @return {@code true} if the keyword was taken; {@code false}
+         * otherwise
+         */
+        private boolean acceptKeyword(final String keyword)
+        {
+            if (next < tokens.size()) {
+                Token token = tokens.get(next);
+                if (token.kind == TokenKind.WORD
+                    && keyword.equalsIgnoreCase(token.text)) {
+                    next++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Splits an expression into tokens.
+         *
+         * @param expression a filter expression
+         * @return the tokens
+         */
+        private static List<Token> tokenize(final String expression)
+        {
+            List<Token> value = new ArrayList<>();
+            int length = expression.length();
+            int i = 0;
+            while (i < length) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                }
+                else if (c == '(') {
+                    value.add(new Token(TokenKind.OPEN, "("));
+                    i++;
+                }
+                else if (c == ')') {
+                    value.add(new Token(TokenKind.CLOSE, ")"));
+                    i++;
+                }
+                else if (c == '"') {
+                    StringBuilder text = new StringBuilder();
+                    i++;
+                    while (i < length && expression.charAt(i) != '"') {
+                        if (expression.charAt(i) == '\\' && i + 1 < length) {
+                            i++;
+                        }
+                        text.append(expression.charAt(i));
+                        i++;
+                    }
+                    if (i == length) {
+                        throw new IllegalArgumentException(
+                            "Unterminated string");
+                    }
+                    value.add(new Token(TokenKind.STRING, text.toString()));
+                    i++;
+                }
+                else if ("=!<>~".indexOf(c) >= 0) {
+                    int start = i;
+                    i++;
+                    if (i < length && "=~".indexOf(expression.charAt(i)) >= 0
+                        && c != '=' && c != '~') {
+                        i++;
+                    }
+                    value.add(new Token(
+                        TokenKind.OPERATOR, expression.substring(start, i)));
+                }
+                else {
+                    int start = i;
+                    while (i < length && isWordPart(expression.charAt(i))) {
+                        i++;
+                    }
+                    if (i == start) {
+                        throw new IllegalArgumentException(
+                            "Unexpected character: " + c);
+                    }
+                    value.add(new Token(
+                        TokenKind.WORD, expression.substring(start, i)));
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Returns {@code true} if a character can be a part of a word.
+         *
+         * @param c a character
+         * @return {@code true} if the character can be a part of a word
+         */
+        private static boolean isWordPart(final char c)
+        {
+            return Character.isLetterOrDigit(c) || "_.:+-".indexOf(c) >= 0;
+        }
+    }
+
+    /**
+     * Kind of a token.
+     */
+    private enum TokenKind
+    {
+        /**
+         * Word such as a field name, a keyword, a number or a datetime.
+         */
+        WORD,
+
+        /**
+         * Quoted string.
+         */
+        STRING,
+
+        /**
+         * Comparison operator.
+         */
+        OPERATOR,
+
+        /**
+         * Opening parenthesis.
+         */
+        OPEN,
+
+        /**
+         * Closing parenthesis.
+         */
+        CLOSE,
+    }
+
+    /**
+     * Token of an expression.
+     */
+    private static final class Token
+    {
+        /**
+         * Kind of the token.
+         */
+        private final TokenKind kind;
+
+        /**
+         * Text of the token.
+         */
+        private final String text;
+
+        /**
+         * Initializes the object.
+         *
+         * @param kind the kind of the token
+         * @param text the text of the token
+         */
+        Token(final TokenKind kind, final String text)
+        {
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+}
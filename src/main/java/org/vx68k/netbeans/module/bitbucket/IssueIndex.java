@@ -0,0 +1,272 @@
+/*
+ * IssueIndex.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted full-text index of issue records.
+ * <p>Titles and contents are split into lower-case terms, and each term
+ * maps to the issues that contain it with a weight.
+ * Query terms match index terms by prefix unless they are shorter than
+ * {@value #MIN_PREFIX_LENGTH} characters, and matches are ranked by term
+ * weight and rarity, with exact matches ranked higher.</p>
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueIndex
+{
+    /**
+     * Weight of a term occurrence in a title.
+     */
+    private static final int TITLE_WEIGHT = 3;
+
+    /**
+     * Weight of a term occurrence in a content.
+     */
+    private static final int CONTENT_WEIGHT = 1;
+
+    /**
+     * Factor applied to the score of an exact term match.
+     */
+    private static final double EXACT_MATCH_FACTOR = 2.0;
+
+    /**
+     * Minimum length of a query term that matches by prefix.
+     */
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    /**
+     * Postings by term.
+     */
+    private final NavigableMap<String, Postings> terms = new TreeMap<>();
+
+    /**
+     * Terms by issue identifier.
+     */
+    private final Map<Integer, String[]> documentTerms = new HashMap<>();
+
+    /**
+     * Splits a text into lower-case terms.
+     *
+     * @param text a text, or {@code null}
+     * @return the terms in the text
+     */
+    static List<String> tokenize(final String text)
+    {
+        List<String> value = new ArrayList<>();
+        if (text != null) {
+            int length = text.length();
+            int start = -1;
+            for (int i = 0; i <= length; i++) {
+                boolean part = i < length
+                    && Character.isLetterOrDigit(text.charAt(i));
+                if (part && start < 0) {
+                    start = i;
+                }
+                else if (!part && start >= 0) {
+                    value.add(
+                        text.substring(start, i).toLowerCase(Locale.ROOT));
+                    start = -1;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Adds or replaces an issue record.
+     *
+     * @param record an issue record
+     */
+    void put(final IssueRecord record)
+    {
+        int id = record.getId();
+        remove(id);
+
+        Map<String, Integer> weights = new HashMap<>();
+        tokenize(record.getTitle())
+            .forEach((term) -> weights.merge(term, TITLE_WEIGHT, Integer::sum));
+        tokenize(record.getContent()).forEach(
+            (term) -> weights.merge(term, CONTENT_WEIGHT, Integer::sum));
+
+        weights.forEach((term, weight) ->
+            terms.computeIfAbsent(term, (key) -> new Postings())
+                .add(id, weight));
+        documentTerms.put(id, weights.keySet().toArray(new String[0]));
+    }
+
+    /**
+     * Removes an issue.
+     *
+     * @param id the identifier of the issue
+     */
+    void remove(final int id)
+    {
+        String[] oldTerms = documentTerms.remove(id);
+        if (oldTerms != null) {
+            for (String term : oldTerms) {
+                Postings postings = terms.get(term);
+                postings.remove(id);
+                if (postings.size == 0) {
+                    terms.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the issues.
+     */
+    void clear()
+    {
+        terms.clear();
+        documentTerms.clear();
+    }
+
+    /**
+     * Searches for issues that match all the terms of a query.
+     *
+     * @param query a query text
+     * @param limit the maximum number of issues returned
+     * @return the identifiers of the issues found, in the order of rank
+     */
+    int[] search(final String query, final int limit)
+    {
+        Set<String> queryTerms = new LinkedHashSet<>(tokenize(query));
+        if (queryTerms.isEmpty()) {
+            return new int[0];
+        }
+
+        double documentCount = documentTerms.size();
+        Map<Integer, Double> scores = null;
+        for (String queryTerm : queryTerms) {
+            Map<Integer, Double> termScores = new HashMap<>();
+            String limitTerm = queryTerm + Character.MAX_VALUE;
+            if (queryTerm.length() < MIN_PREFIX_LENGTH) {
+                limitTerm = queryTerm;
+            }
+            for (Map.Entry<String, Postings> entry
+                : terms.subMap(queryTerm, true, limitTerm, true).entrySet()) {
+                Postings postings = entry.getValue();
+                double factor = Math.log(1.0 + documentCount / postings.size);
+                if (entry.getKey().length() == queryTerm.length()) {
+                    factor *= EXACT_MATCH_FACTOR;
+                }
+                for (int i = 0; i < postings.size; i++) {
+                    termScores.merge(postings.ids[i],
+                        factor * postings.weights[i], Double::sum);
+                }
+            }
+
+            if (scores == null) {
+                scores = termScores;
+            }
+            else {
+                scores.keySet().retainAll(termScores.keySet());
+                scores.replaceAll(
+                    (id, score) -> score + termScores.get(id));
+            }
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+
+        return scores.entrySet().stream()
+            .sorted(Comparator.comparing(Map.Entry<Integer, Double>::getValue)
+                .reversed()
+                .thenComparing(Map.Entry::getKey, Comparator.reverseOrder()))
+            .limit(limit)
+            .mapToInt(Map.Entry::getKey)
+            .toArray();
+    }
+
+    /**
+     * Postings of a term.
+     */
+    private static final class Postings
+    {
+        /**
+         * Initial capacity of postings.
+         */
+        private static final int INITIAL_CAPACITY = 4;
+
+        /**
+         * Identifiers of the issues that contain the term.
+         */
+        private int[] ids = new int[INITIAL_CAPACITY];
+
+        /**
+         * Weights of the term in the issues.
+         */
+        private int[] weights = new int[INITIAL_CAPACITY];
+
+        /**
+         * Number of the postings.
+         */
+        private int size = 0;
+
+        /**
+         * Adds a posting.
+         *
+         * @param id the identifier of an issue
+         * @param weight the weight of the term in the issue
+         */
+        void add(final int id, final int weight)
+        {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            ids[size] = id;
+            weights[size] = weight;
+            size++;
+        }
+
+        /**
+         * Removes the posting of an issue.
+         *
+         * @param id the identifier of the issue
+         */
+        void remove(final int id)
+        {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    size--;
+                    ids[i] = ids[size];
+                    weights[i] = weights[size];
+                    break;
+                }
+            }
+        }
+    }
+}
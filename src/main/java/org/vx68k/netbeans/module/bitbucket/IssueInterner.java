@@ -0,0 +1,148 @@
+/*
+ * IssueInterner.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+import org.vx68k.bitbucket.api.BitbucketIssue;
+
+/**
+ * Interner of the live issue objects of a repository.
+ * <p>Each issue identifier maps to at most one live issue object, which is
+ * weakly referenced.
+ * Lookups do not lock, and updates for different identifiers do not block
+ * each other.
+ * Entries are removed after their issue objects have been collected.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueInterner
+{
+    /**
+     * Live issues by identifier.
+     */
+    private final ConcurrentMap<Integer, IssueReference> issues =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Queue of the issues that have been collected.
+     */
+    private final ReferenceQueue<BitbucketIssue> queue =
+        new ReferenceQueue<>();
+
+    /**
+     * Returns the live issue for an identifier.
+     *
+     * @param id an issue identifier
+     * @return the live issue if any; {@code null} otherwise
+     */
+    BitbucketIssue get(final int id)
+    {
+        BitbucketIssue value = null;
+        IssueReference reference = issues.get(id);
+        if (reference != null) {
+            value = reference.get();
+        }
+        return value;
+    }
+
+    /**
+     * Interns an issue for an identifier.
+     * The function is called atomically for the identifier with the live
+     * issue, or {@code null} if there is none, and the issue it returns
+     * becomes the live one.
+     *
+     * @param id an issue identifier
+     * @param function a function that updates or creates the issue
+     * @return the live issue
+     */
+    BitbucketIssue intern(
+        final int id, final UnaryOperator<BitbucketIssue> function)
+    {
+        expunge();
+        BitbucketIssue[] value = new BitbucketIssue[1];
+        issues.compute(id, (key, reference) -> {
+            BitbucketIssue live = null;
+            if (reference != null) {
+                live = reference.get();
+            }
+            value[0] = function.apply(live);
+            if (reference != null && value[0] == live) {
+                return reference;
+            }
+            return new IssueReference(id, value[0], queue);
+        });
+        return value[0];
+    }
+
+    /**
+     * Removes all the entries.
+     * Live issues are no longer returned or updated by this object.
+     */
+    void clear()
+    {
+        issues.clear();
+        expunge();
+    }
+
+    /**
+     * Removes the entries whose issues have been collected.
+     */
+    private void expunge()
+    {
+        for (Reference<? extends BitbucketIssue> reference = queue.poll();
+            reference != null; reference = queue.poll()) {
+            issues.remove(((IssueReference) reference).id, reference);
+        }
+    }
+
+    /**
+     * Weak reference to an issue with its identifier.
+     */
+    private static final class IssueReference
+        extends WeakReference<BitbucketIssue>
+    {
+        /**
+         * Identifier of the issue.
+         */
+        private final int id;
+
+        /**
+         * Initializes the object.
+         *
+         * @param id the identifier of the issue
+         * @param issue the issue
+         * @param queue a queue to which this reference is enqueued when the
+         * issue has been collected
+         */
+        IssueReference(
+            final int id, final BitbucketIssue issue,
+            final ReferenceQueue<? super BitbucketIssue> queue)
+        {
+            super(issue, queue);
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * IssuePageDecoder.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * Streaming decoder of pages of issues.
+ * <p>Issue records are built straight from the events of a JSON parser
+ * without materializing the object tree of a page.
+ * Fields that are not needed for records, including nested objects such as
+ * users, are skipped as they are read.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssuePageDecoder
+{
+    /**
+     * Factory of JSON parsers.
+     */
+    private static final JsonParserFactory PARSER_FACTORY =
+        Json.createParserFactory(null);
+
+    /**
+     * Does nothing.
+     */
+    private IssuePageDecoder()
+    {
+    }
+
+    /**
+     * Decodes a page of issues from a stream.
+     *
+     * @param stream a stream of a JSON page object
+     * @return the page decoded
+     * @throws JsonException if the stream is not a valid page
+     */
+    static IssueSummaryClient.Page decode(final InputStream stream)
+    {
+        try (JsonParser parser = PARSER_FACTORY.createParser(stream)) {
+            if (parser.next() != Event.START_OBJECT) {
+                throw new JsonException("Page object expected");
+            }
+
+            List<IssueRecord> records = new ArrayList<>();
+            String next = null;
+            for (Event event = parser.next(); event != Event.END_OBJECT;
+                event = parser.next()) {
+                String key = parser.getString();
+                event = parser.next();
+                if ("values".equals(key) && event == Event.START_ARRAY) {
+                    readValues(parser, records);
+                }
+                else if ("next".equals(key) && event == Event.VALUE_STRING) {
+                    next = parser.getString();
+                }
+                else {
+                    skip(parser, event);
+                }
+            }
+            return new IssueSummaryClient.Page(records, next);
+        }
+    }
+
+    /**
+     * Decodes a single issue from a stream.
+     *
+     * @param stream a stream of a JSON issue object
+     * @return the record of the issue decoded
+     * @throws JsonException if the stream is not a valid issue
+     */
+    static IssueRecord decodeIssue(final InputStream stream)
+    {
+        try (JsonParser parser = PARSER_FACTORY.createParser(stream)) {
+            if (parser.next() != Event.START_OBJECT) {
+                throw new JsonException("Issue object expected");
+            }
+
+            IssueRecord record = readIssue(parser);
+            if (record == null) {
+                throw new JsonException("Issue identifier expected");
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Reads the issues in an array.
+     * The start of the array must have been read.
+     *
+     * @param parser a JSON parser
+     * @param records a list to which the records of the issues are added
+     */
+    private static void readValues(
+        final JsonParser parser, final List<IssueRecord> records)
+    {
+        for (Event event = parser.next(); event != Event.END_ARRAY;
+            event = parser.next()) {
+            if (event == Event.START_OBJECT) {
+                IssueRecord record = readIssue(parser);
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+            else {
+                skip(parser, event);
+            }
+        }
+    }
+
+    /**
+     * Reads an issue object.
+     * The start of the object must have been read.
+     *
+     * @param parser a JSON parser
+     * @return the record of the issue, or {@code null} if the object has
+     * no identifier
+     */
+    private static IssueRecord readIssue(final JsonParser parser)
+    {
+        boolean hasId = false;
+        int id = 0;
+        String title = null;
+        String state = null;
+        String kind = null;
+        String priority = null;
+        String content = null;
+        String updatedOn = null;
+        for (Event event = parser.next(); event != Event.END_OBJECT;
+            event = parser.next()) {
+            String key = parser.getString();
+            event = parser.next();
+            if (event == Event.VALUE_NUMBER && "id".equals(key)) {
+                hasId = true;
+                id = parser.getInt();
+            }
+            else if (event == Event.START_OBJECT && "content".equals(key)) {
+                content = readContent(parser);
+            }
+            else if (event == Event.VALUE_STRING) {
+                switch (key) {
+                case "title":
+                    title = parser.getString();
+                    break;
+                case "state":
+                    state = parser.getString();
+                    break;
+                case "kind":
+                    kind = parser.getString();
+                    break;
+                case "priority":
+                    priority = parser.getString();
+                    break;
+                case "updated_on":
+                    updatedOn = parser.getString();
+                    break;
+                default:
+                    break;
+                }
+            }
+            else {
+                skip(parser, event);
+            }
+        }
+
+        if (!hasId) {
+            return null;
+        }
+        return new IssueRecord(
+            id, title, state, kind, priority, content, updatedOn);
+    }
+
+    /**
+     * Reads a content object and returns its raw text.
+     * The start of the object must have been read.
+     *
+     * @param parser a JSON parser
+     * @return the raw text of the content, or {@code null} if none
+     */
+    private static String readContent(final JsonParser parser)
+    {
+        String raw = null;
+        for (Event event = parser.next(); event != Event.END_OBJECT;
+            event = parser.next()) {
+            String key = parser.getString();
+            event = parser.next();
+            if (event == Event.VALUE_STRING && "raw".equals(key)) {
+                raw = parser.getString();
+            }
+            else {
+                skip(parser, event);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Skips a value.
+     * If the value is an object or an array, its contents are skipped up
+     * to its end.
+     *
+     * @param parser a JSON parser
+     * @param event the event that started the value
+     */
+    private static void skip(final JsonParser parser, final Event event)
+    {
+        if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+            return;
+        }
+
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+            case START_OBJECT:
+            case START_ARRAY:
+                depth++;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                depth--;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * IssuePrefetcher.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openide.util.RequestProcessor;
+
+/**
+ * Prefetcher of the issues referenced in texts.
+ * <p>Texts with the spans found by the issue finder are collected for a
+ * short delay, and the issue identifiers are extracted from them,
+ * de-duplicated and handed to the repository provider in one batch on the
+ * prefetching thread, so that the issues are in the cache before their
+ * hyperlinks are hovered or followed.</p>
+ * <p>A text whose issue references are the same as those last submitted is
+ * ignored, so repeated calls for an unchanged text cost a comparison of the
+ * references only.
+ * Nothing is collected while the server is unreachable.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssuePrefetcher
+{
+    /**
+     * Delay in milliseconds for which texts are collected.
+     */
+    private static final int DELAY = 200;
+
+    /**
+     * Maximum number of texts pending.
+     */
+    private static final int MAX_PENDING = 8;
+
+    /**
+     * Maximum number of issues prefetched at once.
+     */
+    private static final int MAX_PREFETCH = 200;
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(IssuePrefetcher.class.getName());
+
+    /**
+     * Request processor for prefetching.
+     */
+    private static final RequestProcessor PREFETCHER =
+        new RequestProcessor(IssuePrefetcher.class.getName());
+
+    /**
+     * Repository provider that resolves identifiers.
+     */
+    private final BitbucketRepositoryProvider repositoryProvider;
+
+    /**
+     * Task to prefetch the pending issues.
+     */
+    private final RequestProcessor.Task task;
+
+    /**
+     * Texts pending, oldest first.
+     */
+    private final List<Source> pending = new ArrayList<>(MAX_PENDING + 1);
+
+    /**
+     * Spans last submitted, or {@code null}.
+     */
+    private int[] lastSpans = null;
+
+    /**
+     * Hash code of the issue references last submitted.
+     */
+    private int lastHash = 0;
+
+    /**
+     * Initializes the object.
+     *
+     * @param repositoryProvider a repository provider that resolves
+     * identifiers
+     */
+    IssuePrefetcher(final BitbucketRepositoryProvider repositoryProvider)
+    {
+        this.repositoryProvider = repositoryProvider;
+        this.task = PREFETCHER.create(this::run);
+    }
+
+    /**
+     * Requests the issues referenced in a text to be prefetched.
+     *
+     * @param text a text
+     * @param spans the spans of the issue references in the text as
+     * returned by the issue finder
+     */
+    void prefetch(final CharSequence text, final int[] spans)
+    {
+        if (!repositoryProvider.isOnline()) {
+            return;
+        }
+
+        int hash = hashReferences(text, spans);
+        int[] copiedSpans;
+        synchronized (pending) {
+            if (hash == lastHash && Arrays.equals(spans, lastSpans)) {
+                return;
+            }
+            copiedSpans = spans.clone();
+            lastSpans = copiedSpans;
+            lastHash = hash;
+        }
+
+        Source source = capture(text, copiedSpans);
+        synchronized (pending) {
+            pending.add(source);
+            if (pending.size() > MAX_PENDING) {
+                pending.remove(0);
+            }
+        }
+        task.schedule(DELAY);
+    }
+
+    /**
+     * Returns the hash code of the issue references in a text.
+     *
+     * @param text a text
+     * @param spans the spans of the issue references in the text
+     * @return the hash code of the characters of the issue references
+     */
+    private static int hashReferences(final CharSequence text,
+        final int[] spans)
+    {
+        int hash = 0;
+        for (int i = 0; i < spans.length; i += 2) {
+            for (int j = spans[i]; j < spans[i + 1]; j++) {
+                hash = 31 * hash + text.charAt(j);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Captures the issue references in a text for the prefetching thread.
+     * A string is kept as is, while only the issue references are copied,
+     * each after a space, from other texts, which may change.
+     *
+     * @param text a text
+     * @param spans the spans of the issue references in the text, which are
+     * not changed afterwards
+     * @return the captured issue references
+     */
+    private static Source capture(final CharSequence text, final int[] spans)
+    {
+        if (text instanceof String) {
+            return new Source((String) text, spans);
+        }
+
+        StringBuilder copy = new StringBuilder();
+        int[] copiedSpans = new int[spans.length];
+        for (int i = 0; i < spans.length; i += 2) {
+            copy.append(' ');
+            copiedSpans[i] = copy.length();
+            copy.append(text, spans[i], spans[i + 1]);
+            copiedSpans[i + 1] = copy.length();
+        }
+        return new Source(copy.toString(), copiedSpans);
+    }
+
+    /**
+     * Prefetches the issues referenced in the pending texts.
+     */
+    private void run()
+    {
+        List<Source> sources;
+        synchronized (pending) {
+            sources = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (sources.isEmpty() || !repositoryProvider.isOnline()) {
+            return;
+        }
+
+        Set<String> ids = new LinkedHashSet<>();
+        int[] groups = new int[IssueReferenceScanner.GROUP_COUNT];
+        for (Source source : sources) {
+            int[] spans = source.spans;
+            for (int i = 0; i < spans.length && ids.size() < MAX_PREFETCH;
+                i += 2) {
+                int end = IssueReferenceScanner.match(
+                    source.text, spans[i], groups);
+                if (end == spans[i + 1]) {
+                    ids.add(BitbucketIssueFinder.toIssueId(
+                        source.text, groups));
+                }
+            }
+        }
+        try {
+            repositoryProvider.prefetchIssues(ids);
+        }
+        catch (RuntimeException exception) {
+            LOGGER.log(Level.FINE, "Failed to prefetch issues", exception);
+        }
+    }
+
+    /**
+     * Issue references captured from a text.
+     */
+    private static final class Source
+    {
+        /**
+         * Text that contains the issue references.
+         */
+        private final String text;
+
+        /**
+         * Spans of the issue references in the text.
+         */
+        private final int[] spans;
+
+        /**
+         * Initializes the object.
+         *
+         * @param text a text that contains the issue references
+         * @param spans the spans of the issue references in the text
+         */
+        Source(final String text, final int[] spans)
+        {
+            this.text = text;
+            this.spans = spans;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * IssueRecord.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import org.vx68k.bitbucket.api.BitbucketContent;
+import org.vx68k.bitbucket.api.BitbucketIssue;
+
+/**
+ * Compact record of the properties of an issue.
+ * Objects of this class are immutable.
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueRecord
+{
+    /**
+     * Value of {@link #getUpdatedTime} when the time of the last update is
+     * unknown.
+     */
+    static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    /**
+     * Identifier of the issue.
+     */
+    private final int id;
+
+    /**
+     * Title of the issue.
+     */
+    private final String title;
+
+    /**
+     * State of the issue.
+     */
+    private final String state;
+
+    /**
+     * Kind of the issue.
+     */
+    private final String kind;
+
+    /**
+     * Priority of the issue.
+     */
+    private final String priority;
+
+    /**
+     * Raw content of the issue, or {@code null} if none.
+     */
+    private final String content;
+
+    /**
+     * Time when the issue was updated last in the ISO 8601 format, or
+     * {@code null} if unknown.
+     */
+    private final String updatedOn;
+
+    /**
+     * Time when the issue was updated last in microseconds since the epoch,
+     * or {@link #UNKNOWN_TIME}.
+     */
+    private final long updatedTime;
+
+    /**
+     * Initializes the object.
+     *
+     * @param id the identifier of the issue
+     * @param title the title of the issue
+     * @param state the state of the issue
+     * @param kind the kind of the issue
+     * @param priority the priority of the issue
+     * @param content the raw content of the issue, or {@code null}
+     * @param updatedOn the time when the issue was updated last, or
+     * {@code null} if unknown
+     */
+    IssueRecord(
+        final int id, final String title, final String state,
+        final String kind, final String priority, final String content,
+        final String updatedOn)
+    {
+        this(id, title, state, kind, priority, content, updatedOn,
+            parseTime(updatedOn));
+    }
+
+    /**
+     * Initializes the object with the time of the last update already
+     * parsed.
+     *
+     * @param id the identifier of the issue
+     * @param title the title of the issue
+     * @param state the state of the issue
+     * @param kind the kind of the issue
+     * @param priority the priority of the issue
+     * @param content the raw content of the issue, or {@code null}
+     * @param updatedOn the time when the issue was updated last, or
+     * {@code null} if unknown
+     * @param updatedTime the same time in microseconds since the epoch, or
+     * {@link #UNKNOWN_TIME}
+     */
+    IssueRecord(
+        final int id, final String title, final String state,
+        final String kind, final String priority, final String content,
+        final String updatedOn, final long updatedTime)
+    {
+        this.id = id;
+        this.title = title;
+        this.state = state;
+        this.kind = kind;
+        this.priority = priority;
+        this.content = content;
+        this.updatedOn = updatedOn;
+        this.updatedTime = updatedTime;
+    }
+
+    /**
+     * Parses a time in the ISO 8601 format with an offset.
+     *
+     * @param text a time text, or {@code null}
+     * @return the time in microseconds since the epoch, or
+     * {@link #UNKNOWN_TIME} if the text is {@code null} or not valid
+     */
+    static long parseTime(final String text)
+    {
+        if (text == null) {
+            return UNKNOWN_TIME;
+        }
+        try {
+            return toMicros(OffsetDateTime.parse(text).toInstant());
+        }
+        catch (DateTimeParseException | ArithmeticException exception) {
+            return UNKNOWN_TIME;
+        }
+    }
+
+    /**
+     * Converts an instant to microseconds since the epoch.
+     *
+     * @param instant an instant
+     * @return the instant in microseconds since the epoch
+     * @throws ArithmeticException if the instant is out of range
+     */
+    static long toMicros(final Instant instant)
+    {
+        return Math.addExact(
+            Math.multiplyExact(instant.getEpochSecond(), 1000000L),
+            instant.getNano() / 1000);
+    }
+
+    /**
+     * Returns a record of the properties of an issue.
+     * For a cached issue, its current record is returned.
+     * Otherwise the time of the last update is unknown, since a full issue
+     * does not expose it, and {@link #mergeWith} takes it from the previous
+     * record; records that need it are decoded from the issue JSON instead.
+     *
+     * @param issue an issue
+     * @return a record of the properties of the issue
+     */
+    static IssueRecord of(final BitbucketIssue issue)
+    {
+        CachedIssue handler = CachedIssue.getHandler(issue);
+        if (handler != null) {
+            return handler.getRecord();
+        }
+
+        String content = null;
+        BitbucketContent issueContent = issue.getContent();
+        if (issueContent != null) {
+            content = issueContent.getRaw();
+        }
+        return new IssueRecord(
+            issue.getId(), issue.getTitle(), issue.getState(),
+            issue.getKind(), issue.getPriority(), content, null);
+    }
+
+    /**
+     * Returns this record with the properties it lacks taken from a
+     * previous record of the same issue.
+     * The content is taken only if the issue has not been updated since
+     * the previous record.
+     *
+     * @param previous a previous record of the issue, or {@code null}
+     * @return the merged record
+     */
+    IssueRecord mergeWith(final IssueRecord previous)
+    {
+        if (previous == null || previous.id != id
+            || content != null && updatedOn != null) {
+            return this;
+        }
+
+        String mergedContent = content;
+        if (mergedContent == null
+            && (updatedOn == null || updatedOn.equals(previous.updatedOn))) {
+            mergedContent = previous.content;
+        }
+        String mergedUpdatedOn = updatedOn;
+        long mergedUpdatedTime = updatedTime;
+        if (mergedUpdatedOn == null) {
+            mergedUpdatedOn = previous.updatedOn;
+            mergedUpdatedTime = previous.updatedTime;
+        }
+        return new IssueRecord(id, title, state, kind, priority,
+            mergedContent, mergedUpdatedOn, mergedUpdatedTime);
+    }
+
+    /**
+     * Reads a record from a data input.
+     *
+     * @param input a data input
+     * @return the record read
+     * @throws IOException if an I/O error occurred
+     */
+    static IssueRecord readFrom(final DataInput input) throws IOException
+    {
+        int id = input.readInt();
+        String title = readString(input);
+        String state = readString(input);
+        String kind = readString(input);
+        String priority = readString(input);
+        String content = readString(input);
+        String updatedOn = readString(input);
+        return new IssueRecord(
+            id, title, state, kind, priority, content, updatedOn);
+    }
+
+    /**
+     * Writes this record to a data output.
+     *
+     * @param output a data output
+     * @throws IOException if an I/O error occurred
+     */
+    void writeTo(final DataOutput output) throws IOException
+    {
+        output.writeInt(id);
+        writeString(output, title);
+        writeString(output, state);
+        writeString(output, kind);
+        writeString(output, priority);
+        writeString(output, content);
+        writeString(output, updatedOn);
+    }
+
+    /**
+     * Reads a nullable string from a data input.
+     * Unlike {@link DataInput#readUTF}, the length of the string is not
+     * limited.
+     *
+     * @param input a data input
+     * @return the string read, or {@code null}
+     * @throws IOException if an I/O error occurred
+     */
+    static String readString(final DataInput input) throws IOException
+    {
+        String value = null;
+        if (input.readBoolean()) {
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * Writes a nullable string to a data output.
+     *
+     * @param output a data output
+     * @param value a string, or {@code null}
+     * @throws IOException if an I/O error occurred
+     */
+    static void writeString(final DataOutput output, final String value)
+        throws IOException
+    {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Returns the identifier of the issue.
+     *
+     * @return the identifier of the issue
+     */
+    int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the title of the issue.
+     *
+     * @return the title of the issue
+     */
+    String getTitle()
+    {
+        return title;
+    }
+
+    /**
+     * Returns the state of the issue.
+     *
+     * @return the state of the issue
+     */
+    String getState()
+    {
+        return state;
+    }
+
+    /**
+     * Returns the kind of the issue.
+     *
+     * @return the kind of the issue
+     */
+    String getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Returns the priority of the issue.
+     *
+     * @return the priority of the issue
+     */
+    String getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     * Returns the raw content of the issue.
+     *
+     * @return the raw content of the issue, or {@code null} if none
+     */
+    String getContent()
+    {
+        return content;
+    }
+
+    /**
+     * Returns the time when the issue was updated last.
+     *
+     * @return the time when the issue was updated last in the ISO 8601
+     * format, or {@code null} if unknown
+     */
+    String getUpdatedOn()
+    {
+        return updatedOn;
+    }
+
+    /**
+     * Returns the time when the issue was updated last, parsed when this
+     * record was created.
+     *
+     * @return the time when the issue was updated last in microseconds
+     * since the epoch, or {@link #UNKNOWN_TIME} if unknown
+     */
+    long getUpdatedTime()
+    {
+        return updatedTime;
+    }
+
+    @Override
+    public boolean equals(final Object object)
+    {
+        if (object == this) {
+            return true;
+        }
+        if (!(object instanceof IssueRecord)) {
+            return false;
+        }
+        IssueRecord other = (IssueRecord) object;
+        return id == other.id && Objects.equals(title, other.title)
+            && Objects.equals(state, other.state)
+            && Objects.equals(kind, other.kind)
+            && Objects.equals(priority, other.priority)
+            && Objects.equals(content, other.content)
+            && Objects.equals(updatedOn, other.updatedOn);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(
+            id, title, state, kind, priority, content, updatedOn);
+    }
+}
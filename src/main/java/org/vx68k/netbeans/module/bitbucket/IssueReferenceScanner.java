@@ -0,0 +1,700 @@
+/*
+ * IssueReferenceScanner.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.Arrays;
+
+/**
+ * Scanner of issue references in texts.
+ * <p>The following forms are recognized:</p>
+ * <ul>
+ * <li>{@code #123}</li>
+ * <li>{@code owner/repo#123}</li>
+ * <li>{@code issue #123}</li>
+ * <li>{@code fixes #123}, {@code closes #123}, {@code resolves #123} and
+ * their other inflections</li>
+ * <li>{@code https://bitbucket.org/owner/repo/issues/123}, with or without
+ * the scheme</li>
+ * </ul>
+ * <p>A match attempt starts either at a {@code #} or at the start of a
+ * word.
+ * The word is read once through a keyword automaton, and the character
+ * after it selects the form to continue with, so the cost of a scan is
+ * linear in the length of the text.</p>
+ * <p>Every form contains a trigger character, {@code #} or {@code /},
+ * not far after its start, so a scan can look for the next trigger
+ * character alone and attempt matches only from the position returned by
+ * {@link #backtrack} for it.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueReferenceScanner
+{
+    /**
+     * Index of the start of the owner name in groups.
+     */
+    static final int OWNER_START = 0;
+
+    /**
+     * Index of the end of the owner name in groups.
+     */
+    static final int OWNER_END = 1;
+
+    /**
+     * Index of the start of the repository name in groups.
+     */
+    static final int NAME_START = 2;
+
+    /**
+     * Index of the end of the repository name in groups.
+     */
+    static final int NAME_END = 3;
+
+    /**
+     * Index of the start of the issue number in groups.
+     */
+    static final int NUMBER_START = 4;
+
+    /**
+     * Index of the end of the issue number in groups.
+     */
+    static final int NUMBER_END = 5;
+
+    /**
+     * Number of elements in groups.
+     */
+    static final int GROUP_COUNT = 6;
+
+    /**
+     * Maximum length of an owner or repository name.
+     */
+    private static final int MAX_NAME_LENGTH = 64;
+
+    /**
+     * Maximum number of digits of an issue number, so that every issue
+     * number matched fits in an {@code int}.
+     */
+    private static final int MAX_NUMBER_LENGTH = 9;
+
+    /**
+     * Maximum number of spaces between a keyword and an issue number.
+     */
+    private static final int MAX_SPACES = 4;
+
+    /**
+     * Separator between a scheme and a host.
+     */
+    private static final String SCHEME_SEPARATOR = "://";
+
+    /**
+     * Path segment before an issue number in a URL.
+     */
+    private static final String ISSUES_SEGMENT = "issues/";
+
+    /**
+     * Keyword automaton code for keywords followed by an issue number.
+     */
+    private static final byte KEYWORD = 1;
+
+    /**
+     * Keyword automaton code for URL schemes.
+     */
+    private static final byte SCHEME = 2;
+
+    /**
+     * Keyword automaton code for the Bitbucket Cloud host.
+     */
+    private static final byte HOST = 3;
+
+    /**
+     * Maximum number of characters a match attempt reads at and after its
+     * start position when it fails, or after the end of the match when it
+     * succeeds.
+     * A match attempt also reads the character before its start.
+     */
+    static final int LOOKAHEAD = 4 * (MAX_NAME_LENGTH + 2)
+        + SCHEME_SEPARATOR.length() + ISSUES_SEGMENT.length() + MAX_SPACES
+        + MAX_NUMBER_LENGTH + 2;
+
+    /**
+     * Number of symbols of the keyword automaton.
+     */
+    private static final int SYMBOL_COUNT = 27;
+
+    /**
+     * Transitions of the keyword automaton by state and symbol.
+     */
+    private static final int[][] TRANSITIONS;
+
+    /**
+     * Codes of the accepting states of the keyword automaton.
+     */
+    private static final byte[] CODES;
+
+    /**
+     * Length of the longest keyword followed by an issue number.
+     */
+    private static final int MAX_KEYWORD_LENGTH;
+
+    /**
+     * Keyword automaton symbols of the ASCII characters plus one, or zero
+     * for characters that are not name characters; non-ASCII characters
+     * are not name characters.
+     */
+    private static final byte[] CHAR_CLASSES = new byte[128];
+
+    /**
+     * Value in {@link #CHAR_CLASSES} for name characters that are not
+     * symbols of the keyword automaton.
+     */
+    private static final byte NON_SYMBOL = (byte) (SYMBOL_COUNT + 1);
+
+    static {
+        for (char c = 0; c < CHAR_CLASSES.length; c++) {
+            if (c >= 'a' && c <= 'z') {
+                CHAR_CLASSES[c] = (byte) (c - 'a' + 1);
+            }
+            else if (c >= 'A' && c <= 'Z') {
+                CHAR_CLASSES[c] = (byte) (c - 'A' + 1);
+            }
+            else if (c == '.') {
+                CHAR_CLASSES[c] = (byte) SYMBOL_COUNT;
+            }
+            else if (c >= '0' && c <= '9' || c == '-' || c == '_') {
+                CHAR_CLASSES[c] = NON_SYMBOL;
+            }
+        }
+    }
+
+    static {
+        String[] keywords = {
+            "issue", "close", "closes", "closed", "closing", "fix", "fixes",
+            "fixed", "fixing", "resolve", "resolves", "resolved",
+            "resolving",
+        };
+        int[][] transitions = new int[1][];
+        byte[] codes = new byte[1];
+        transitions[0] = newState();
+        int stateCount = 1;
+
+        String[] words = Arrays.copyOf(keywords, keywords.length + 3);
+        words[keywords.length] = "http";
+        words[keywords.length + 1] = "https";
+        words[keywords.length + 2] = "bitbucket.org";
+        for (String word : words) {
+            int state = 0;
+            for (int i = 0; i < word.length(); i++) {
+                int symbol = getSymbol(word.charAt(i));
+                if (transitions[state][symbol] < 0) {
+                    if (stateCount == transitions.length) {
+                        transitions =
+                            Arrays.copyOf(transitions, stateCount * 2);
+                        codes = Arrays.copyOf(codes, stateCount * 2);
+                    }
+                    transitions[stateCount] = newState();
+                    transitions[state][symbol] = stateCount++;
+                }
+                state = transitions[state][symbol];
+            }
+            if (word.startsWith("http")) {
+                codes[state] = SCHEME;
+            }
+            else if (word.indexOf('.') >= 0) {
+                codes[state] = HOST;
+            }
+            else {
+                codes[state] = KEYWORD;
+            }
+        }
+        TRANSITIONS = Arrays.copyOf(transitions, stateCount);
+        CODES = Arrays.copyOf(codes, stateCount);
+        MAX_KEYWORD_LENGTH = Arrays.stream(keywords)
+            .mapToInt(String::length).max().getAsInt();
+    }
+
+    /**
+     * Does nothing but prevents instantiation.
+     */
+    private IssueReferenceScanner()
+    {
+    }
+
+    /**
+     * Returns a new state of the keyword automaton with no transitions.
+     *
+     * @return the transitions of the new state
+     */
+    private static int[] newState()
+    {
+        int[] value = new int[SYMBOL_COUNT];
+        Arrays.fill(value, -1);
+        return value;
+    }
+
+    /**
+     * Returns the symbol of a character for the keyword automaton.
+     *
+     * @param c a character
+     * @return the symbol of the character, or {@code -1} if none
+     */
+    private static int getSymbol(final char c)
+    {
+        int value = -1;
+        if (c < CHAR_CLASSES.length) {
+            int charClass = CHAR_CLASSES[c];
+            if (charClass != 0 && charClass != NON_SYMBOL) {
+                value = charClass - 1;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the next state of the keyword automaton.
+     *
+     * @param state a state, or {@code -1} if rejected
+     * @param c a character
+     * @return the next state, or {@code -1} if rejected
+     */
+    private static int step(final int state, final char c)
+    {
+        int value = -1;
+        if (state >= 0) {
+            int symbol = getSymbol(c);
+            if (symbol >= 0) {
+                value = TRANSITIONS[state][symbol];
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns {@code true} if a character can be a part of a name.
+     *
+     * @param c a character
+     * @return {@code true} if the character can be a part of a name
+     */
+    private static boolean isNameChar(final char c)
+    {
+        return c < CHAR_CLASSES.length && CHAR_CLASSES[c] != 0;
+    }
+
+    /**
+     * Returns {@code true} if a character is an ASCII digit.
+     *
+     * @param c a character
+     * @return {@code true} if the character is an ASCII digit
+     */
+    private static boolean isDigit(final char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Returns the next position at which an issue reference can start after
+     * a failed match attempt.
+     * No match attempt can start inside a run of name characters, so the
+     * rest of the run is skipped.
+     *
+     * @param text a text
+     * @param start the position of the failed match attempt
+     * @return the next position to attempt a match at
+     */
+    static int skip(final CharSequence text, final int start)
+    {
+        int length = text.length();
+        int i = start + 1;
+        if (isNameChar(text.charAt(start))) {
+            while (i < length && isNameChar(text.charAt(i))) {
+                i++;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Finds a character in a text.
+     * The search is delegated to {@link String#indexOf(int, int)} if the
+     * text is a string.
+     *
+     * @param text a text
+     * @param c a character
+     * @param start the position to search from
+     * @return the position of the character if found; {@code -1} otherwise
+     */
+    static int indexOf(final CharSequence text, final char c, final int start)
+    {
+        if (text instanceof String) {
+            return ((String) text).indexOf(c, start);
+        }
+
+        int length = text.length();
+        for (int i = start; i < length; i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position from which to attempt matches to find the issue
+     * references that contain a trigger character.
+     * Match attempts made from the returned position up to the trigger
+     * character, each resuming at the end of a match or at the position
+     * returned by {@link #skip}, find the same issue references as a scan
+     * of the whole text, provided that the scan has reached the floor and
+     * there is no trigger character between the floor and the given one.
+     * <p>An issue reference can start before its first trigger character
+     * only with a keyword followed by spaces, an owner name, a URL scheme
+     * followed by a colon, or the host of a URL, each of which is a run of
+     * name characters.</p>
+     *
+     * @param text a text
+     * @param trigger the position of a trigger character
+     * @param floor the position the scan has reached, at or before the
+     * trigger character
+     * @return the position from which to attempt matches, between the floor
+     * and the trigger character
+     */
+    static int backtrack(
+        final CharSequence text, final int trigger, final int floor)
+    {
+        if (text.charAt(trigger) == '#') {
+            return backtrackKeyword(text, trigger, floor);
+        }
+
+        int i = trigger;
+        if (i > floor && text.charAt(i - 1) == ':') {
+            i--;
+        }
+        // A longer run cannot start an issue reference.
+        int limit = Math.max(floor, i - MAX_NAME_LENGTH - 1);
+        while (i > limit && isNameChar(text.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the position from which to attempt matches to find the issue
+     * references that contain a {@code #}.
+     * Only a keyword followed by spaces can start an issue reference before
+     * its {@code #}, since a qualified one contains a {@code /} before it.
+     *
+     * @param text a text
+     * @param trigger the position of a {@code #}
+     * @param floor the position the scan has reached
+     * @return the position from which to attempt matches
+     * @see #backtrack
+     */
+    private static int backtrackKeyword(
+        final CharSequence text, final int trigger, final int floor)
+    {
+        int end = trigger;
+        while (end > floor && trigger - end < MAX_SPACES
+            && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (end == trigger) {
+            return trigger;
+        }
+
+        // A run longer than any keyword is not read to its start.
+        int start = end;
+        int limit = Math.max(floor, end - MAX_KEYWORD_LENGTH - 1);
+        while (start > limit && isNameChar(text.charAt(start - 1))) {
+            start--;
+        }
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            state = step(state, text.charAt(i));
+        }
+        if (start == end || state < 0 || CODES[state] != KEYWORD) {
+            return trigger;
+        }
+        return start;
+    }
+
+    /**
+     * Matches an issue reference at a position.
+     *
+     * @param text a text
+     * @param start the position to match at
+     * @return the end of the issue reference if matched; {@code -1}
+     * otherwise
+     */
+    static int match(final CharSequence text, final int start)
+    {
+        return match(text, start, null);
+    }
+
+    /**
+     * Matches an issue reference at a position and captures its parts.
+     *
+     * @param text a text
+     * @param start the position to match at
+     * @param groups an array of {@link #GROUP_COUNT} elements to which the
+     * positions of the parts are stored, or {@code null}; the owner and
+     * repository names are {@code -1} if the reference is not qualified
+     * @return the end of the issue reference if matched; {@code -1}
+     * otherwise
+     */
+    static int match(
+        final CharSequence text, final int start, final int[] groups)
+    {
+        if (groups != null) {
+            Arrays.fill(groups, -1);
+        }
+
+        char c = text.charAt(start);
+        if (c == '#') {
+            return matchNumber(text, start + 1, groups);
+        }
+        if (!isNameChar(c) || start > 0 && isNameChar(text.charAt(start - 1))) {
+            return -1;
+        }
+
+        // The word is read once, tracking the keyword automaton until it
+        // rejects.
+        int length = text.length();
+        int state = 0;
+        int i = start;
+        while (i < length && i - start <= MAX_NAME_LENGTH
+            && isNameChar(text.charAt(i))) {
+            if (state >= 0) {
+                state = step(state, text.charAt(i));
+            }
+            i++;
+        }
+        if (i == length || i - start > MAX_NAME_LENGTH) {
+            return -1;
+        }
+
+        byte code = 0;
+        if (state >= 0) {
+            code = CODES[state];
+        }
+        c = text.charAt(i);
+        if (c == '/') {
+            if (code == HOST) {
+                return matchPath(text, i + 1, groups);
+            }
+            return matchQualified(text, start, i, groups);
+        }
+        if (c == ':' && code == SCHEME) {
+            return matchUrl(text, i, groups);
+        }
+        if (Character.isWhitespace(c) && code == KEYWORD) {
+            return matchKeywordReference(text, i, groups);
+        }
+        return -1;
+    }
+
+    /**
+     * Matches an issue number.
+     * A run of more than {@link #MAX_NUMBER_LENGTH} digits is rejected.
+     *
+     * @param text a text
+     * @param start the position of the issue number
+     * @param groups an array for the parts, or {@code null}
+     * @return the end of the issue number if matched; {@code -1} otherwise
+     */
+    private static int matchNumber(
+        final CharSequence text, final int start, final int[] groups)
+    {
+        int length = text.length();
+        int end = start;
+        while (end < length && end - start <= MAX_NUMBER_LENGTH
+            && isDigit(text.charAt(end))) {
+            end++;
+        }
+        if (end == start || end - start > MAX_NUMBER_LENGTH) {
+            return -1;
+        }
+        if (groups != null) {
+            groups[NUMBER_START] = start;
+            groups[NUMBER_END] = end;
+        }
+        return end;
+    }
+
+    /**
+     * Matches a name.
+     *
+     * @param text a text
+     * @param start the position of the name
+     * @return the end of the name if matched; {@code -1} otherwise
+     */
+    private static int matchName(final CharSequence text, final int start)
+    {
+        int length = text.length();
+        int end = start;
+        while (end < length && end - start <= MAX_NAME_LENGTH
+            && isNameChar(text.charAt(end))) {
+            end++;
+        }
+        if (end == start || end - start > MAX_NAME_LENGTH) {
+            return -1;
+        }
+        return end;
+    }
+
+    /**
+     * Matches the rest of {@code owner/repo#123} after the owner name.
+     *
+     * @param text a text
+     * @param start the position of the owner name
+     * @param slash the position of the slash after the owner name
+     * @param groups an array for the parts, or {@code null}
+     * @return the end of the reference if matched; {@code -1} otherwise
+     */
+    private static int matchQualified(
+        final CharSequence text, final int start, final int slash,
+        final int[] groups)
+    {
+        int nameEnd = matchName(text, slash + 1);
+        if (nameEnd < 0 || nameEnd == text.length()
+            || text.charAt(nameEnd) != '#') {
+            return -1;
+        }
+        int end = matchNumber(text, nameEnd + 1, groups);
+        if (end >= 0 && groups != null) {
+            groups[OWNER_START] = start;
+            groups[OWNER_END] = slash;
+            groups[NAME_START] = slash + 1;
+            groups[NAME_END] = nameEnd;
+        }
+        return end;
+    }
+
+    /**
+     * Matches the rest of a URL after its scheme.
+     *
+     * @param text a text
+     * @param start the position of the scheme separator
+     * @param groups an array for the parts, or {@code null}
+     * @return the end of the URL if matched; {@code -1} otherwise
+     */
+    private static int matchUrl(
+        final CharSequence text, final int start, final int[] groups)
+    {
+        int i = matchLiteral(text, start, SCHEME_SEPARATOR);
+        if (i < 0) {
+            return -1;
+        }
+
+        int hostEnd = matchName(text, i);
+        if (hostEnd < 0 || hostEnd == text.length()
+            || text.charAt(hostEnd) != '/') {
+            return -1;
+        }
+        int state = 0;
+        for (int j = i; j < hostEnd; j++) {
+            state = step(state, text.charAt(j));
+        }
+        if (state < 0 || CODES[state] != HOST) {
+            return -1;
+        }
+        return matchPath(text, hostEnd + 1, groups);
+    }
+
+    /**
+     * Matches the path of an issue URL after the host.
+     *
+     * @param text a text
+     * @param start the position after the slash that follows the host
+     * @param groups an array for the parts, or {@code null}
+     * @return the end of the URL if matched; {@code -1} otherwise
+     */
+    private static int matchPath(
+        final CharSequence text, final int start, final int[] groups)
+    {
+        int ownerEnd = matchName(text, start);
+        if (ownerEnd < 0 || ownerEnd == text.length()
+            || text.charAt(ownerEnd) != '/') {
+            return -1;
+        }
+        int nameEnd = matchName(text, ownerEnd + 1);
+        if (nameEnd < 0 || nameEnd == text.length()
+            || text.charAt(nameEnd) != '/') {
+            return -1;
+        }
+        int i = matchLiteral(text, nameEnd + 1, ISSUES_SEGMENT);
+        if (i < 0) {
+            return -1;
+        }
+        int end = matchNumber(text, i, groups);
+        if (end >= 0 && groups != null) {
+            groups[OWNER_START] = start;
+            groups[OWNER_END] = ownerEnd;
+            groups[NAME_START] = ownerEnd + 1;
+            groups[NAME_END] = nameEnd;
+        }
+        return end;
+    }
+
+    /**
+     * Matches the rest of a keyword reference after the keyword.
+     *
+     * @param text a text
+     * @param start the position after the keyword
+     * @param groups an array for the parts, or {@code null}
+     * @return the end of the reference if matched; {@code -1} otherwise
+     */
+    private static int matchKeywordReference(
+        final CharSequence text, final int start, final int[] groups)
+    {
+        int length = text.length();
+        int i = start;
+        while (i < length && i - start < MAX_SPACES
+            && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        if (i == length || text.charAt(i) != '#') {
+            return -1;
+        }
+        return matchNumber(text, i + 1, groups);
+    }
+
+    /**
+     * Matches a literal string.
+     *
+     * @param text a text
+     * @param start the position to match at
+     * @param literal a literal string
+     * @return the end of the literal if matched; {@code -1} otherwise
+     */
+    private static int matchLiteral(
+        final CharSequence text, final int start, final String literal)
+    {
+        int end = start + literal.length();
+        if (end > text.length()) {
+            return -1;
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (text.charAt(start + i) != literal.charAt(i)) {
+                return -1;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * IssueSpanCache.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache of issue spans of large texts for incremental rescanning.
+ * <p>The spans of recently scanned texts are kept with snapshots of the
+ * texts.
+ * When a text is scanned again, either as the same object with changed
+ * contents or as a new version, the edited region is located by comparing
+ * it with a snapshot from both ends.
+ * Only the edited region, plus the margin a match attempt can look ahead,
+ * is rescanned; the spans before it are kept and those after it are
+ * shifted.</p>
+ * <p>{@link org.netbeans.modules.bugtracking.spi.IssueFinder} receives only
+ * a {@link CharSequence} without any notice of edits, so finding whether
+ * and where a text changed takes a comparison with its snapshot, which is
+ * linear in the length of the text when the text is equal to but not the
+ * same object as the snapshot.
+ * The comparison is much cheaper than a rescan, though, and the text is
+ * not copied for it: a {@link String} is its own snapshot, and other texts
+ * are copied only when they changed.
+ * A new version of a text is recognized by both of its ends, so that texts
+ * that only share a header are not taken for each other.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueSpanCache
+{
+    /**
+     * Minimum length of a text worth caching.
+     */
+    static final int MIN_LENGTH = 16384;
+
+    /**
+     * Maximum number of texts cached.
+     */
+    private static final int CACHE_SIZE = 4;
+
+    /**
+     * Number of characters compared at once to locate an edit.
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Number of characters compared at each end to find the snapshot of a
+     * new version of a text.
+     */
+    private static final int PROBE_LENGTH = 64;
+
+    /**
+     * Matcher of issue strings.
+     */
+    @FunctionalInterface
+    interface Matcher
+    {
+        /**
+         * Matches an issue string at a position.
+         * The character before the position may be read.
+         *
+         * @param text a text
+         * @param start the position to match at
+         * @return the end of the issue string if matched; {@code -1}
+         * otherwise
+         */
+        int match(CharSequence text, int start);
+    }
+
+    /**
+     * Matcher of issue strings.
+     */
+    private final Matcher matcher;
+
+    /**
+     * Maximum number of characters a match attempt reads at and after its
+     * start position when it fails, or after the end of the match when it
+     * succeeds.
+     */
+    private final int lookahead;
+
+    /**
+     * Cached entries, most recently used first.
+     */
+    private final List<Entry> entries = new ArrayList<>(CACHE_SIZE + 1);
+
+    /**
+     * Initializes the object.
+     *
+     * @param matcher a matcher of issue strings
+     * @param lookahead the maximum number of characters a match attempt
+     * reads at and after its start position when it fails, or after the end
+     * of the match when it succeeds
+     */
+    IssueSpanCache(final Matcher matcher, final int lookahead)
+    {
+        this.matcher = matcher;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Returns the issue spans of a text.
+     *
+     * @param text a text
+     * @return the issue spans as pairs of start and end positions
+     */
+    synchronized int[] getSpans(final CharSequence text)
+    {
+        Entry entry = findSource(text);
+        boolean sameSource = entry != null;
+        if (entry == null) {
+            entry = findVersion(text);
+        }
+
+        String snapshot = null;
+        int[] spans = null;
+        if (entry != null) {
+            String old = entry.snapshot;
+            int newLength = text.length();
+            int limit = Math.min(old.length(), newLength);
+            int prefix = limit;
+            if (old != text) {
+                prefix = commonPrefix(old, text, limit);
+            }
+            if (prefix == old.length() && prefix == newLength) {
+                snapshot = old;
+                spans = entry.spans;
+            }
+            else {
+                int suffix = commonSuffix(old, text, limit - prefix);
+                if (prefix + suffix >= newLength / 2) {
+                    snapshot = text.toString();
+                    spans = update(entry, snapshot, prefix, suffix);
+                }
+            }
+            // An entry of another text is kept unless it was used.
+            if (spans != null || sameSource) {
+                entries.remove(entry);
+            }
+        }
+        if (spans == null) {
+            snapshot = text.toString();
+            spans = scan(snapshot);
+        }
+
+        entries.add(0, new Entry(text, snapshot, spans));
+        if (entries.size() > CACHE_SIZE) {
+            entries.remove(CACHE_SIZE);
+        }
+        return spans.clone();
+    }
+
+    /**
+     * Finds the entry of the same object as a text.
+     *
+     * @param text a text
+     * @return the entry if found; {@code null} otherwise
+     */
+    private Entry findSource(final CharSequence text)
+    {
+        for (Entry entry : entries) {
+            if (entry.source.get() == text) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the most recently used entry that looks like an earlier version
+     * of a text.
+     * Both ends of the text must match those of the snapshot, and the
+     * snapshot must be long enough to share half of the text.
+     *
+     * @param text a text
+     * @return the entry if found; {@code null} otherwise
+     */
+    private Entry findVersion(final CharSequence text)
+    {
+        int length = text.length();
+        int probe = Math.min(PROBE_LENGTH, length);
+        for (Entry entry : entries) {
+            String old = entry.snapshot;
+            if (2 * old.length() >= length
+                && regionMatches(old, 0, text, 0, probe)
+                && regionMatches(old, old.length() - probe,
+                    text, length - probe, probe)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Updates the spans of an entry for a new version of its text.
+     *
+     * @param entry an entry
+     * @param text the new version of the text
+     * @param prefix the length of the common prefix of the snapshot and the
+     * text
+     * @param suffix the length of the common suffix of the snapshot and the
+     * text, not overlapping the common prefix
+     * @return the updated spans
+     */
+    private int[] update(final Entry entry, final String text,
+        final int prefix, final int suffix)
+    {
+        String old = entry.snapshot;
+        int newLength = text.length();
+
+        // Spans whose matching read only the common prefix are kept.
+        int[] oldSpans = entry.spans;
+        int kept = 0;
+        while (kept < oldSpans.length
+            && oldSpans[kept + 1] + lookahead <= prefix) {
+            kept += 2;
+        }
+        int resume = Math.max(prefix - lookahead, 0);
+        if (kept > 0) {
+            resume = Math.max(resume, oldSpans[kept - 1]);
+        }
+        if (kept < oldSpans.length && oldSpans[kept] < resume) {
+            resume = oldSpans[kept];
+        }
+
+        SpanBuffer buffer = new SpanBuffer(oldSpans.length + 16);
+        buffer.add(oldSpans, 0, kept, 0);
+
+        // Rescan until the scan is in step with the old one in the common
+        // suffix, where the rest of the old spans apply shifted.
+        // A match attempt may read the character before its start, so the
+        // scans can get in step only after the first common character.
+        int delta = newLength - old.length();
+        int newEnd = newLength - suffix;
+        int next = kept;
+        int i = resume;
+        while (i < newLength) {
+            if (i > newEnd) {
+                int oldPosition = i - delta;
+                while (next < oldSpans.length
+                    && oldSpans[next + 1] <= oldPosition) {
+                    next += 2;
+                }
+                if (next == oldSpans.length
+                    || oldSpans[next] >= oldPosition) {
+                    buffer.add(oldSpans, next, oldSpans.length, delta);
+                    return buffer.toArray();
+                }
+            }
+
+            int end = matcher.match(text, i);
+            if (end >= 0) {
+                buffer.add(i, end);
+                i = end;
+            }
+            else {
+                i++;
+            }
+        }
+        return buffer.toArray();
+    }
+
+    /**
+     * Scans a text for issue strings.
+     *
+     * @param text a text
+     * @return the spans of the issue strings
+     */
+    private int[] scan(final String text)
+    {
+        SpanBuffer buffer = new SpanBuffer(16);
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int end = matcher.match(text, i);
+            if (end >= 0) {
+                buffer.add(i, end);
+                i = end;
+            }
+            else {
+                i++;
+            }
+        }
+        return buffer.toArray();
+    }
+
+    /**
+     * Tests if regions of a string and a text are equal.
+     *
+     * @param a a string
+     * @param aOffset the start of the region of the string
+     * @param b a text
+     * @param bOffset the start of the region of the text
+     * @param length the length of the regions
+     * @return {@code true} if the regions are equal; {@code false} otherwise
+     */
+    private static boolean regionMatches(final String a, final int aOffset,
+        final CharSequence b, final int bOffset, final int length)
+    {
+        if (b instanceof String) {
+            return a.regionMatches(aOffset, (String) b, bOffset, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(aOffset + i) != b.charAt(bOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the length of the common prefix of a string and a text.
+     *
+     * @param a a string
+     * @param b a text
+     * @param limit the maximum length
+     * @return the length of the common prefix
+     */
+    private static int commonPrefix(
+        final String a, final CharSequence b, final int limit)
+    {
+        int length = 0;
+        while (length + BLOCK_SIZE <= limit
+            && regionMatches(a, length, b, length, BLOCK_SIZE)) {
+            length += BLOCK_SIZE;
+        }
+        while (length < limit && a.charAt(length) == b.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the length of the common suffix of a string and a text.
+     *
+     * @param a a string
+     * @param b a text
+     * @param limit the maximum length
+     * @return the length of the common suffix
+     */
+    private static int commonSuffix(
+        final String a, final CharSequence b, final int limit)
+    {
+        int aLength = a.length();
+        int bLength = b.length();
+        int length = 0;
+        while (length + BLOCK_SIZE <= limit
+            && regionMatches(a, aLength - length - BLOCK_SIZE,
+                b, bLength - length - BLOCK_SIZE, BLOCK_SIZE)) {
+            length += BLOCK_SIZE;
+        }
+        while (length < limit && a.charAt(aLength - length - 1)
+            == b.charAt(bLength - length - 1)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Cached spans of a text.
+     */
+    private static final class Entry
+    {
+        /**
+         * Text scanned.
+         */
+        private final WeakReference<CharSequence> source;
+
+        /**
+         * Snapshot of the text when scanned, which is the text itself if it
+         * is a string.
+         */
+        private final String snapshot;
+
+        /**
+         * Spans of the snapshot.
+         */
+        private final int[] spans;
+
+        /**
+         * Initializes the object.
+         *
+         * @param source the text scanned
+         * @param snapshot a snapshot of the text when scanned
+         * @param spans the spans of the snapshot
+         */
+        Entry(final CharSequence source, final String snapshot,
+            final int[] spans)
+        {
+            this.source = new WeakReference<>(source);
+            this.snapshot = snapshot;
+            this.spans = spans;
+        }
+    }
+
+    /**
+     * Growable buffer of spans.
+     */
+    private static final class SpanBuffer
+    {
+        /**
+         * Spans in the buffer.
+         */
+        private int[] spans;
+
+        /**
+         * Number of elements used.
+         */
+        private int size = 0;
+
+        /**
+         * Initializes the object.
+         *
+         * @param capacity the initial capacity
+         */
+        SpanBuffer(final int capacity)
+        {
+            this.spans = new int[capacity];
+        }
+
+        /**
+         * Makes room for elements.
+         *
+         * @param count the number of elements to be added
+         */
+        private void reserve(final int count)
+        {
+            if (size + count > spans.length) {
+                spans = Arrays.copyOf(
+                    spans, Math.max(spans.length * 2, size + count));
+            }
+        }
+
+        /**
+         * Adds a span.
+         *
+         * @param start the start of the span
+         * @param end the end of the span
+         */
+        void add(final int start, final int end)
+        {
+            reserve(2);
+            spans[size++] = start;
+            spans[size++] = end;
+        }
+
+        /**
+         * Adds spans shifted by an offset.
+         *
+         * @param source an array of spans
+         * @param from the index of the first element to add
+         * @param to the index after the last element to add
+         * @param offset an offset added to each element
+         */
+        void add(final int[] source, final int from, final int to,
+            final int offset)
+        {
+            reserve(to - from);
+            for (int i = from; i < to; i++) {
+                spans[size++] = source[i] + offset;
+            }
+        }
+
+        /**
+         * Returns the spans in the buffer.
+         *
+         * @return the spans in the buffer
+         */
+        int[] toArray()
+        {
+            return Arrays.copyOf(spans, size);
+        }
+    }
+}
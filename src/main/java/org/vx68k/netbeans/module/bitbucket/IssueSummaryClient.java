@@ -0,0 +1,716 @@
+/*
+ * IssueSummaryClient.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.openide.util.RequestProcessor;
+import org.vx68k.bitbucket.api.BitbucketIssue;
+import org.vx68k.bitbucket.api.BitbucketIssueTracker;
+import org.vx68k.netbeans.module.bitbucket.RequestScheduler.Lane;
+
+/**
+ * Client for issue summaries of a Bitbucket Cloud repository.
+ * <p>All the requests are made through the request scheduler and the
+ * connectivity monitor: those a user is waiting for in the interactive
+ * lane, and the others in the background lane.
+ * If the monitor is offline, requests fail at once without taking a token
+ * from the scheduler.</p>
+ * <p>Issues are listed with a field projection so that only the properties
+ * shown in lists and the raw content, which the local full-text index
+ * needs, are transferred; rendered content, links and user objects are
+ * left to be loaded with the full issue when it is opened.</p>
+ * <p>Single issues are fetched with conditional requests.
+ * The validators of the last response for each issue URI are remembered,
+ * so that an issue that has not changed costs a response with no body.
+ * Issues looked up by identifier are combined into as few filtered
+ * requests as possible.</p>
+ * <p>Full issues are loaded from the issue tracker of the repository,
+ * which is resolved when it is first needed rather than when the client
+ * is created.
+ * Concurrent loads of the same issue share one call.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueSummaryClient
+{
+    /**
+     * Base URI of the Bitbucket Cloud API.
+     */
+    private static final String API_BASE = "https://api.bitbucket.org/2.0";
+
+    /**
+     * Fields projected for a page of issue summaries.
+     */
+    private static final String FIELDS = "next,values.id,values.title,"
+        + "values.state,values.kind,values.priority,values.content.raw,"
+        + "values.updated_on";
+
+    /**
+     * Fields projected for a single issue.
+     */
+    private static final String ISSUE_FIELDS = "id,title,state,kind,"
+        + "priority,content.raw,updated_on";
+
+    /**
+     * Number of issues requested in a page.
+     */
+    private static final int PAGE_LENGTH = 50;
+
+    /**
+     * Maximum number of issue URIs whose validators are remembered.
+     */
+    private static final int MAX_VALIDATORS = 1024;
+
+    /**
+     * Maximum number of issue identifiers combined into one filter
+     * expression.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    /**
+     * Maximum number of single issue fetches run in parallel.
+     */
+    private static final int PARALLEL_FETCHES = 4;
+
+    /**
+     * Marker of the end of pages.
+     */
+    private static final List<IssueRecord> END_OF_PAGES =
+        Collections.emptyList();
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(IssueSummaryClient.class.getName());
+
+    /**
+     * Request processor for single issue fetches.
+     */
+    private static final RequestProcessor FETCHER = new RequestProcessor(
+        IssueSummaryClient.class.getName(), PARALLEL_FETCHES);
+
+    /**
+     * Request processor to prefetch pages of issues.
+     */
+    private static final RequestProcessor PREFETCHER = new RequestProcessor(
+        IssueSummaryClient.class.getName() + ".prefetcher",
+        PARALLEL_FETCHES, true);
+
+    /**
+     * HTTP client.
+     */
+    private final Client client;
+
+    /**
+     * Request scheduler.
+     */
+    private final RequestScheduler scheduler;
+
+    /**
+     * Connectivity monitor.
+     */
+    private final ConnectivityMonitor monitor;
+
+    /**
+     * Supplier that resolves the issue tracker of the repository.
+     */
+    private final Supplier<BitbucketIssueTracker> resolver;
+
+    /**
+     * Issue tracker of the repository, or {@code null} if not resolved
+     * yet.
+     */
+    private volatile BitbucketIssueTracker target = null;
+
+    /**
+     * Coalescer of resolutions of the issue tracker.
+     */
+    private final SingleFlight<String, BitbucketIssueTracker> targetCalls =
+        new SingleFlight<>();
+
+    /**
+     * Coalescer of loads of full issues.
+     */
+    private final SingleFlight<Integer, BitbucketIssue> issueCalls =
+        new SingleFlight<>();
+
+    /**
+     * Target for the issues of the repository.
+     */
+    private final WebTarget issues;
+
+    /**
+     * Target for a single issue of the repository.
+     * It has a template parameter {@code id}.
+     */
+    private final WebTarget issue;
+
+    /**
+     * Validators of the last responses by issue URI in the order of
+     * access.
+     */
+    private final Map<String, Validator> validators =
+        new LinkedHashMap<String, Validator>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<String, Validator> eldest)
+            {
+                return size() > MAX_VALIDATORS;
+            }
+        };
+
+    /**
+     * Initializes the object.
+     *
+     * @param client an HTTP client
+     * @param owner the owner of the repository
+     * @param name the name of the repository
+     * @param scheduler a request scheduler
+     * @param monitor a connectivity monitor
+     * @param resolver a supplier that resolves the issue tracker of the
+     * repository, which may call the server
+     */
+    IssueSummaryClient(
+        final Client client, final String owner, final String name,
+        final RequestScheduler scheduler, final ConnectivityMonitor monitor,
+        final Supplier<BitbucketIssueTracker> resolver)
+    {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.monitor = monitor;
+        this.resolver = resolver;
+        WebTarget base = client.target(API_BASE)
+            .path("repositories").path(owner).path(name).path("issues");
+        this.issues = base
+            .queryParam("fields", FIELDS)
+            .queryParam("pagelen", PAGE_LENGTH);
+        this.issue = base.path("{id}")
+            .queryParam("fields", ISSUE_FIELDS);
+    }
+
+    /**
+     * Returns {@code true} if the server is considered reachable.
+     *
+     * @return {@code true} if online; {@code false} otherwise
+     */
+    boolean isOnline()
+    {
+        return monitor.isOnline();
+    }
+
+    /**
+     * Makes a request through the request scheduler and the connectivity
+     * monitor.
+     *
+     * @param <T> type of the result
+     * @param lane the lane of the request
+     * @param request a supplier that makes the request
+     * @return the result of the request
+     * @throws ProcessingException if the server is unreachable
+     */
+    private <T> T execute(final Lane lane, final Supplier<T> request)
+    {
+        monitor.check();
+        return scheduler.execute(lane, () -> monitor.execute(request));
+    }
+
+    /**
+     * Returns the issue tracker of the repository, resolving it if
+     * necessary.
+     * Concurrent resolutions share one call, and a failed one is made
+     * again on the next use.
+     *
+     * @return the issue tracker, or {@code null} if none
+     * @throws ProcessingException if the server is unreachable
+     */
+    BitbucketIssueTracker getTarget()
+    {
+        BitbucketIssueTracker value = target;
+        if (value == null) {
+            value = targetCalls.call("", () -> {
+                BitbucketIssueTracker resolved =
+                    execute(Lane.INTERACTIVE, resolver);
+                target = resolved;
+                return resolved;
+            });
+        }
+        return value;
+    }
+
+    /**
+     * Loads a full issue from the issue tracker in the interactive lane.
+     * If the server is unreachable, nothing is loaded so that the issue
+     * keeps being served from its stored record.
+     *
+     * @param id the identifier of the issue
+     * @return the full issue, or {@code null} if the server is unreachable
+     * @throws IllegalStateException if the issue was not found
+     */
+    BitbucketIssue loadIssue(final int id)
+    {
+        if (!isOnline()) {
+            return null;
+        }
+
+        BitbucketIssue value;
+        try {
+            value = issueCalls.call(id, () -> {
+                BitbucketIssueTracker tracker = getTarget();
+                if (tracker == null) {
+                    throw new IllegalStateException("No issue tracker");
+                }
+                return execute(Lane.INTERACTIVE, () -> tracker.getIssue(id));
+            });
+        }
+        catch (ProcessingException exception) {
+            if (isOnline()) {
+                throw exception;
+            }
+            LOGGER.log(Level.FINE, "Serving a stored issue while offline",
+                exception);
+            return null;
+        }
+        if (value == null) {
+            throw new IllegalStateException("Issue not found: " + id);
+        }
+        return value;
+    }
+
+    /**
+     * Fetches an issue if it has changed since it was fetched last.
+     *
+     * @param id the identifier of the issue
+     * @param lane the lane of the request
+     * @return the record of the issue, or {@code null} if it has not
+     * changed
+     * @throws NotFoundException if the issue was not found
+     * @throws WebApplicationException if the request failed
+     */
+    IssueRecord fetchIssue(final int id, final Lane lane)
+    {
+        return execute(lane, () -> requestIssue(id));
+    }
+
+    /**
+     * Fetches the records of issues for identifiers.
+     * Identifiers are combined into as few filtered requests as possible,
+     * and issues that were not found by them are fetched one by one in
+     * parallel.
+     * Issues that cannot be found at all or have not changed since they
+     * were fetched one by one last are omitted from the result.
+     *
+     * @param ids identifiers of the issues
+     * @param lane the lane of the requests
+     * @return the records of the issues found, in the order of the
+     * identifiers
+     */
+    List<IssueRecord> fetchIssues(
+        final Collection<Integer> ids, final Lane lane)
+    {
+        List<Integer> uniqueIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Integer, IssueRecord> found = new ConcurrentHashMap<>();
+        for (int i = 0; i < uniqueIds.size(); i += BATCH_SIZE) {
+            List<Integer> batch = uniqueIds.subList(
+                i, Math.min(i + BATCH_SIZE, uniqueIds.size()));
+            try {
+                list(getFilter(batch), lane)
+                    .forEach((record) -> found.put(record.getId(), record));
+            }
+            catch (RuntimeException exception) {
+                LOGGER.log(Level.INFO, "Batched issue lookup failed",
+                    exception);
+            }
+        }
+
+        List<Future<?>> fetches = new ArrayList<>();
+        uniqueIds.stream()
+            .filter((id) -> !found.containsKey(id))
+            .forEach((id) -> fetches.add(FETCHER.submit(() -> {
+                IssueRecord record = fetchIssue(id, lane);
+                if (record != null) {
+                    found.put(id, record);
+                }
+            })));
+        for (Future<?> fetch : fetches) {
+            try {
+                fetch.get();
+            }
+            catch (ExecutionException exception) {
+                LOGGER.log(Level.FINE, "Issue lookup failed",
+                    exception.getCause());
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return uniqueIds.stream()
+            .filter(found::containsKey)
+            .map(found::get)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a filter expression that matches issues by identifiers.
+     *
+     * @param ids identifiers of the issues
+     * @return a filter expression
+     */
+    private static String getFilter(final Collection<Integer> ids)
+    {
+        return ids.stream()
+            .map((id) -> "id = " + id)
+            .collect(Collectors.joining(" OR "));
+    }
+
+    /**
+     * Lists the records of the issues found by a filter.
+     *
+     * @param filter a filter expression, or {@code null}
+     * @param lane the lane of the requests
+     * @return the records of the issues found by the filter
+     */
+    List<IssueRecord> list(final String filter, final Lane lane)
+    {
+        List<IssueRecord> value = new ArrayList<>();
+        Page page = execute(lane, () -> fetch(filter));
+        value.addAll(page.getRecords());
+        while (page.getNext() != null) {
+            Page current = page;
+            page = execute(lane, () -> fetchNext(current));
+            value.addAll(page.getRecords());
+        }
+        return value;
+    }
+
+    /**
+     * Fetches the records of the issues found by a filter page by page in
+     * the background lane.
+     * While a page is passed to the consumer on the current thread, the
+     * next page is prefetched in the background.
+     * If the current thread is interrupted, fetching is cancelled.
+     *
+     * @param filter a filter expression, or {@code null}
+     * @param consumer a consumer of each page of the records
+     * @throws CancellationException if fetching was cancelled
+     */
+    void fetchPages(
+        final String filter, final Consumer<List<IssueRecord>> consumer)
+    {
+        BlockingQueue<List<IssueRecord>> pages = new ArrayBlockingQueue<>(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        RequestProcessor.Task producer = PREFETCHER.post(() -> {
+            try {
+                try {
+                    Page page = execute(Lane.BACKGROUND, () -> fetch(filter));
+                    pages.put(page.getRecords());
+                    while (page.getNext() != null) {
+                        Page current = page;
+                        page = execute(
+                            Lane.BACKGROUND, () -> fetchNext(current));
+                        pages.put(page.getRecords());
+                    }
+                }
+                catch (RuntimeException exception) {
+                    failure.set(exception);
+                }
+                pages.put(END_OF_PAGES);
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            for (List<IssueRecord> page = pages.take();
+                page != END_OF_PAGES; page = pages.take()) {
+                if (!page.isEmpty()) {
+                    consumer.accept(page);
+                }
+            }
+        }
+        catch (InterruptedException exception) {
+            producer.cancel();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Fetching issues cancelled");
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Requests an issue if it has changed since it was fetched last.
+     * The request is conditional on the validators of the last response
+     * for the issue if any.
+     *
+     * @param id the identifier of the issue
+     * @return the record of the issue, or {@code null} if it has not
+     * changed
+     * @throws NotFoundException if the issue was not found
+     * @throws WebApplicationException if the request failed
+     */
+    private IssueRecord requestIssue(final int id)
+    {
+        WebTarget target = issue.resolveTemplate("id", id);
+        String uri = target.getUri().toString();
+        Validator validator;
+        synchronized (validators) {
+            validator = validators.get(uri);
+        }
+
+        Invocation.Builder request =
+            target.request(MediaType.APPLICATION_JSON);
+        if (validator != null) {
+            validator.addTo(request);
+        }
+        Response response = request.get();
+        try {
+            if (validator != null && response.getStatus()
+                == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                return null;
+            }
+            if (response.getStatus()
+                == Response.Status.NOT_FOUND.getStatusCode()) {
+                throw new NotFoundException(response);
+            }
+            if (response.getStatusInfo().getFamily()
+                != Response.Status.Family.SUCCESSFUL) {
+                throw new WebApplicationException(response);
+            }
+
+            IssueRecord value;
+            try (InputStream stream = response.readEntity(InputStream.class)) {
+                value = IssuePageDecoder.decodeIssue(stream);
+            }
+            catch (IOException exception) {
+                throw new IllegalStateException(
+                    "Failed to read an issue", exception);
+            }
+
+            Validator newValidator = Validator.of(response);
+            synchronized (validators) {
+                if (newValidator != null) {
+                    validators.put(uri, newValidator);
+                }
+                else {
+                    validators.remove(uri);
+                }
+            }
+            return value;
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Fetches the first page of the issue summaries found by a filter.
+     *
+     * @param filter a filter expression, or {@code null}
+     * @return the first page
+     */
+    private Page fetch(final String filter)
+    {
+        WebTarget target = issues;
+        if (filter != null) {
+            target = target.queryParam("q", "{q}")
+                .resolveTemplate("q", filter);
+        }
+        return fetch(target);
+    }
+
+    /**
+     * Fetches the page next to a page.
+     *
+     * @param page a page that has a next one
+     * @return the next page
+     */
+    private Page fetchNext(final Page page)
+    {
+        return fetch(client.target(page.getNext()));
+    }
+
+    /**
+     * Fetches a page of issue summaries.
+     * The page is decoded as it is read from the response stream.
+     *
+     * @param target a target for the page
+     * @return the page
+     */
+    private static Page fetch(final WebTarget target)
+    {
+        try (InputStream stream = target.request(MediaType.APPLICATION_JSON)
+                .get(InputStream.class)) {
+            return IssuePageDecoder.decode(stream);
+        }
+        catch (IOException exception) {
+            throw new IllegalStateException(
+                "Failed to read issues", exception);
+        }
+    }
+
+    /**
+     * Validators of a response.
+     */
+    private static final class Validator
+    {
+        /**
+         * Entity tag, or {@code null} if none.
+         */
+        private final String entityTag;
+
+        /**
+         * Last modification time, or {@code null} if none.
+         */
+        private final String lastModified;
+
+        /**
+         * Initializes the object.
+         *
+         * @param entityTag the entity tag, or {@code null}
+         * @param lastModified the last modification time, or {@code null}
+         */
+        private Validator(final String entityTag, final String lastModified)
+        {
+            this.entityTag = entityTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the validators of a response.
+         * The header values are kept as they are, so that they are sent
+         * back exactly.
+         *
+         * @param response a response
+         * @return the validators of the response, or {@code null} if it has
+         * none
+         */
+        static Validator of(final Response response)
+        {
+            String entityTag = response.getHeaderString(HttpHeaders.ETAG);
+            String lastModified =
+                response.getHeaderString(HttpHeaders.LAST_MODIFIED);
+            if (entityTag == null && lastModified == null) {
+                return null;
+            }
+            return new Validator(entityTag, lastModified);
+        }
+
+        /**
+         * Adds the conditional headers for the validators to a request.
+         *
+         * @param request a request
+         */
+        void addTo(final Invocation.Builder request)
+        {
+            if (entityTag != null) {
+                request.header(HttpHeaders.IF_NONE_MATCH, entityTag);
+            }
+            if (lastModified != null) {
+                request.header(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+            }
+        }
+    }
+
+    /**
+     * Page of issue summaries.
+     */
+    static final class Page
+    {
+        /**
+         * Records of the issues in the page.
+         */
+        private final List<IssueRecord> records;
+
+        /**
+         * URI of the next page, or {@code null} if none.
+         */
+        private final String next;
+
+        /**
+         * Initializes the object.
+         *
+         * @param records the records of the issues in the page
+         * @param next the URI of the next page, or {@code null}
+         */
+        Page(final List<IssueRecord> records, final String next)
+        {
+            this.records = Collections.unmodifiableList(records);
+            this.next = next;
+        }
+
+        /**
+         * Returns the records of the issues in the page.
+         *
+         * @return the records of the issues
+         */
+        List<IssueRecord> getRecords()
+        {
+            return records;
+        }
+
+        /**
+         * Returns the URI of the next page.
+         *
+         * @return the URI of the next page, or {@code null} if none
+         */
+        String getNext()
+        {
+            return next;
+        }
+    }
+}
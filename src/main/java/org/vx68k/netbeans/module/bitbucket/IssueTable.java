@@ -0,0 +1,455 @@
+/*
+ * IssueTable.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Compact table of issue records in columns.
+ * <p>Identifiers are held in a primitive array and located through an
+ * open-addressing hash table of row numbers.
+ * State, kind and priority are held as byte codes into small dictionaries
+ * of their values, so that each of their values is held once for the whole
+ * table.
+ * The other properties are held in arrays of strings, which are not shared
+ * between rows since titles, contents and update times are seldom equal
+ * across issues; only a string equal to the one already in the same row is
+ * kept instead of the new one, so that storing a new version of a record
+ * does not keep two copies of its unchanged strings.
+ * Records are materialized only when they are requested, and a record to
+ * store is compared with its row in place.</p>
+ * <p>Objects of this class are not thread-safe.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class IssueTable
+{
+    /**
+     * Initial number of rows allocated.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Multiplier for hashing identifiers.
+     */
+    private static final int HASH_MULTIPLIER = 0x9e3779b9;
+
+    /**
+     * Number of rows used.
+     */
+    private int size = 0;
+
+    /**
+     * Identifiers of the issues by row.
+     */
+    private int[] ids = new int[INITIAL_CAPACITY];
+
+    /**
+     * Hash table of row numbers plus one, or zero for empty slots.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * Column of the states.
+     */
+    private final CodeColumn states = new CodeColumn(INITIAL_CAPACITY);
+
+    /**
+     * Column of the kinds.
+     */
+    private final CodeColumn kinds = new CodeColumn(INITIAL_CAPACITY);
+
+    /**
+     * Column of the priorities.
+     */
+    private final CodeColumn priorities = new CodeColumn(INITIAL_CAPACITY);
+
+    /**
+     * Titles by row.
+     */
+    private String[] titles = new String[INITIAL_CAPACITY];
+
+    /**
+     * Raw contents by row.
+     */
+    private String[] contents = new String[INITIAL_CAPACITY];
+
+    /**
+     * Times of the last updates by row.
+     */
+    private String[] updatedOns = new String[INITIAL_CAPACITY];
+
+    /**
+     * Parsed times of the last updates by row.
+     */
+    private long[] updatedTimes = new long[INITIAL_CAPACITY];
+
+    /**
+     * Returns the number of records in this table.
+     *
+     * @return the number of records
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the record of an issue.
+     *
+     * @param id the identifier of the issue
+     * @return the record if found; {@code null} otherwise
+     */
+    IssueRecord get(final int id)
+    {
+        int row = findRow(id);
+        if (row < 0) {
+            return null;
+        }
+        return getRecord(row);
+    }
+
+    /**
+     * Stores a record, replacing the one of the same issue if any.
+     *
+     * @param record a record of an issue
+     * @return {@code true} if the stored record was changed; {@code false}
+     * otherwise
+     */
+    boolean put(final IssueRecord record)
+    {
+        int row = findRow(record.getId());
+        if (row < 0) {
+            row = addRow(record.getId());
+        }
+        else if (matches(row, record)) {
+            return false;
+        }
+
+        states.set(row, record.getState());
+        kinds.set(row, record.getKind());
+        priorities.set(row, record.getPriority());
+        titles[row] = reuse(titles[row], record.getTitle());
+        contents[row] = reuse(contents[row], record.getContent());
+        updatedOns[row] = reuse(updatedOns[row], record.getUpdatedOn());
+        updatedTimes[row] = record.getUpdatedTime();
+        return true;
+    }
+
+    /**
+     * Performs an action for each record in this table.
+     *
+     * @param action an action for each record
+     */
+    void forEach(final Consumer<? super IssueRecord> action)
+    {
+        for (int row = 0; row < size; row++) {
+            action.accept(getRecord(row));
+        }
+    }
+
+    /**
+     * Returns all the records in this table.
+     *
+     * @return a new list of all the records
+     */
+    List<IssueRecord> toList()
+    {
+        List<IssueRecord> value = new ArrayList<>(size);
+        forEach(value::add);
+        return value;
+    }
+
+    /**
+     * Removes all the records.
+     */
+    void clear()
+    {
+        size = 0;
+        ids = new int[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY * 2];
+        states.clear(INITIAL_CAPACITY);
+        kinds.clear(INITIAL_CAPACITY);
+        priorities.clear(INITIAL_CAPACITY);
+        titles = new String[INITIAL_CAPACITY];
+        contents = new String[INITIAL_CAPACITY];
+        updatedOns = new String[INITIAL_CAPACITY];
+        updatedTimes = new long[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Materializes the record in a row.
+     *
+     * @param row a row number
+     * @return the record
+     */
+    private IssueRecord getRecord(final int row)
+    {
+        return new IssueRecord(ids[row], titles[row], states.get(row),
+            kinds.get(row), priorities.get(row), contents[row],
+            updatedOns[row], updatedTimes[row]);
+    }
+
+    /**
+     * Tests if the record in a row is equal to a record.
+     *
+     * @param row a row number
+     * @param record a record of the issue in the row
+     * @return {@code true} if the records are equal; {@code false}
+     * otherwise
+     */
+    private boolean matches(final int row, final IssueRecord record)
+    {
+        return Objects.equals(titles[row], record.getTitle())
+            && Objects.equals(states.get(row), record.getState())
+            && Objects.equals(kinds.get(row), record.getKind())
+            && Objects.equals(priorities.get(row), record.getPriority())
+            && Objects.equals(contents[row], record.getContent())
+            && Objects.equals(updatedOns[row], record.getUpdatedOn());
+    }
+
+    /**
+     * Returns the string already stored if it is equal to a new one.
+     *
+     * @param oldValue the string already stored in the same row, or
+     * {@code null}
+     * @param newValue a new string, or {@code null}
+     * @return the string to store
+     */
+    private static String reuse(final String oldValue, final String newValue)
+    {
+        if (Objects.equals(oldValue, newValue)) {
+            return oldValue;
+        }
+        return newValue;
+    }
+
+    /**
+     * Returns the first slot to probe for an identifier.
+     *
+     * @param id an identifier
+     * @return the slot index
+     */
+    private int hash(final int id)
+    {
+        int h = id * HASH_MULTIPLIER;
+        return (h ^ h >>> 16) & (slots.length - 1);
+    }
+
+    /**
+     * Finds the row of an identifier.
+     *
+     * @param id an identifier
+     * @return the row number if found; {@code -1} otherwise
+     */
+    private int findRow(final int id)
+    {
+        int mask = slots.length - 1;
+        for (int i = hash(id); slots[i] != 0; i = (i + 1) & mask) {
+            int row = slots[i] - 1;
+            if (ids[row] == id) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a row for an identifier.
+     *
+     * @param id an identifier not in this table
+     * @return the new row number
+     */
+    private int addRow(final int id)
+    {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            states.grow(capacity);
+            kinds.grow(capacity);
+            priorities.grow(capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            contents = Arrays.copyOf(contents, capacity);
+            updatedOns = Arrays.copyOf(updatedOns, capacity);
+            updatedTimes = Arrays.copyOf(updatedTimes, capacity);
+            rehash(capacity * 2);
+        }
+
+        int row = size++;
+        ids[row] = id;
+        insertSlot(row);
+        return row;
+    }
+
+    /**
+     * Rebuilds the hash table with a new length.
+     *
+     * @param length the new length, a power of two
+     */
+    private void rehash(final int length)
+    {
+        slots = new int[length];
+        for (int row = 0; row < size; row++) {
+            insertSlot(row);
+        }
+    }
+
+    /**
+     * Inserts a row into the hash table.
+     *
+     * @param row a row number
+     */
+    private void insertSlot(final int row)
+    {
+        int mask = slots.length - 1;
+        int i = hash(ids[row]);
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = row + 1;
+    }
+
+    /**
+     * Column of enum-like values held as byte codes.
+     * Code zero stands for {@code null}.
+     * Values beyond the capacity of the dictionary are held as they are.
+     */
+    private static final class CodeColumn
+    {
+        /**
+         * Maximum number of values in the dictionary.
+         */
+        private static final int MAX_CODES = 254;
+
+        /**
+         * Code for values not in the dictionary.
+         */
+        private static final byte OTHER = (byte) (MAX_CODES + 1);
+
+        /**
+         * Codes by row.
+         */
+        private byte[] codes;
+
+        /**
+         * Values by code minus one.
+         */
+        private final List<String> values = new ArrayList<>();
+
+        /**
+         * Codes by value.
+         */
+        private final Map<String, Byte> dictionary = new HashMap<>();
+
+        /**
+         * Values not in the dictionary by row.
+         */
+        private final Map<Integer, String> others = new HashMap<>();
+
+        /**
+         * Initializes the object.
+         *
+         * @param capacity the initial number of rows
+         */
+        CodeColumn(final int capacity)
+        {
+            this.codes = new byte[capacity];
+        }
+
+        /**
+         * Returns the value in a row.
+         *
+         * @param row a row number
+         * @return the value
+         */
+        String get(final int row)
+        {
+            int code = codes[row] & 0xff;
+            if (code == 0) {
+                return null;
+            }
+            if (codes[row] == OTHER) {
+                return others.get(row);
+            }
+            return values.get(code - 1);
+        }
+
+        /**
+         * Sets the value in a row.
+         *
+         * @param row a row number
+         * @param value a value, or {@code null}
+         */
+        void set(final int row, final String value)
+        {
+            if (codes[row] == OTHER) {
+                others.remove(row);
+            }
+
+            byte code = 0;
+            if (value != null) {
+                Byte known = dictionary.get(value);
+                if (known != null) {
+                    code = known;
+                }
+                else if (values.size() < MAX_CODES) {
+                    values.add(value);
+                    code = (byte) values.size();
+                    dictionary.put(value, code);
+                }
+                else {
+                    code = OTHER;
+                    others.put(row, value);
+                }
+            }
+            codes[row] = code;
+        }
+
+        /**
+         * Grows the column.
+         *
+         * @param capacity the new number of rows
+         */
+        void grow(final int capacity)
+        {
+            codes = Arrays.copyOf(codes, capacity);
+        }
+
+        /**
+         * Removes all the values.
+         *
+         * @param capacity the new number of rows
+         */
+        void clear(final int capacity)
+        {
+            codes = new byte[capacity];
+            values.clear();
+            dictionary.clear();
+            others.clear();
+        }
+    }
+}
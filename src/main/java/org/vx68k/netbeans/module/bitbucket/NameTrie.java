@@ -0,0 +1,158 @@
+/*
+ * NameTrie.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prefix trie of names.
+ * <p>Names are matched without regard to case and found in the order of
+ * their lower-case forms.
+ * The time to find names by a prefix depends on the length of the prefix
+ * and the number of names returned, not on the number of names held.</p>
+ * <p>Objects of this class are not thread-safe.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class NameTrie
+{
+    /**
+     * Root node.
+     */
+    private Node root = new Node();
+
+    /**
+     * Number of names held.
+     */
+    private int size = 0;
+
+    /**
+     * Returns the key for a name.
+     *
+     * @param name a name
+     * @return the key for the name
+     */
+    private static String getKey(final String name)
+    {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a name.
+     * If a name that differs only in case is held, it is replaced.
+     *
+     * @param name a name
+     */
+    void add(final String name)
+    {
+        String key = getKey(name);
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.children.computeIfAbsent(
+                key.charAt(i), (c) -> new Node());
+        }
+        if (node.name == null) {
+            size++;
+        }
+        node.name = name;
+    }
+
+    /**
+     * Removes all the names.
+     */
+    void clear()
+    {
+        root = new Node();
+        size = 0;
+    }
+
+    /**
+     * Returns the number of names held.
+     *
+     * @return the number of names
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Finds names that start with a prefix.
+     *
+     * @param prefix a prefix
+     * @param limit the maximum number of names to find
+     * @return the names found, in order
+     */
+    List<String> find(final String prefix, final int limit)
+    {
+        List<String> value = new ArrayList<>();
+        String key = getKey(prefix);
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        if (node != null) {
+            collect(node, limit, value);
+        }
+        return value;
+    }
+
+    /**
+     * Collects the names under a node in order.
+     *
+     * @param node a node
+     * @param limit the maximum number of names to collect
+     * @param names a list to which the names are added
+     */
+    private static void collect(
+        final Node node, final int limit, final List<String> names)
+    {
+        if (node.name != null && names.size() < limit) {
+            names.add(node.name);
+        }
+        for (Node child : node.children.values()) {
+            if (names.size() >= limit) {
+                break;
+            }
+            collect(child, limit, names);
+        }
+    }
+
+    /**
+     * Node of a trie.
+     */
+    private static final class Node
+    {
+        /**
+         * Child nodes by character.
+         */
+        private final Map<Character, Node> children = new TreeMap<>();
+
+        /**
+         * Name that ends at this node, or {@code null} if none.
+         */
+        private String name = null;
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * QueryRegistry.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+import org.openide.util.NbPreferences;
+
+/**
+ * Registry of the queries of a repository.
+ * <p>Query objects are kept across calls, so that their descriptors,
+ * issue containers and results live as long as the repository.
+ * Queries defined by a user are persisted in the preferences of the
+ * module under the identifier of the repository, and only they can be
+ * renamed or removed.
+ * A registry created before the repository has an identifier keeps its
+ * user queries in memory until it is bound to one.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class QueryRegistry
+{
+    /**
+     * Filter expression for open tasks.
+     */
+    private static final String OPEN_ISSUES_FILTER = "state <= \"open\"";
+
+    /**
+     * Name of the preferences node for the queries of all repositories.
+     */
+    private static final String NODE = "queries";
+
+    /**
+     * Preference key for the number of user queries.
+     */
+    private static final String COUNT = "count";
+
+    /**
+     * Prefix of the preference keys for the names of user queries.
+     */
+    private static final String NAME_PREFIX = "name.";
+
+    /**
+     * Prefix of the preference keys for the filters of user queries.
+     */
+    private static final String FILTER_PREFIX = "filter.";
+
+    /**
+     * Prefix of the names generated for user queries saved without one.
+     */
+    private static final String GENERATED_NAME_PREFIX = "Query ";
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(QueryRegistry.class.getName());
+
+    /**
+     * Repository of the queries.
+     */
+    private final BitbucketIssueTrackerProxy repository;
+
+    /**
+     * Preferences for the user queries, or {@code null} if they are not
+     * persisted yet.
+     */
+    private Preferences preferences = null;
+
+    /**
+     * Action to run when the list of the queries changed.
+     */
+    private final Runnable listener;
+
+    /**
+     * Predefined queries, or {@code null} if not created yet.
+     */
+    private List<BitbucketQuery> predefinedQueries = null;
+
+    /**
+     * Queries defined by a user.
+     */
+    private final List<BitbucketQuery> userQueries = new ArrayList<>();
+
+    /**
+     * Snapshot of all the queries, or {@code null} if not taken yet.
+     */
+    private volatile Collection<BitbucketQuery> queries = null;
+
+    /**
+     * Initializes the object.
+     *
+     * @param repository the repository of the queries
+     * @param repositoryId the identifier of the repository, or {@code null}
+     * if the user queries are not persisted
+     * @param listener an action to run when the list of the queries
+     * changed
+     */
+    QueryRegistry(
+        final BitbucketIssueTrackerProxy repository,
+        final String repositoryId, final Runnable listener)
+    {
+        this.repository = repository;
+        this.listener = listener;
+        if (repositoryId != null) {
+            this.preferences = getPreferences(repositoryId);
+        }
+    }
+
+    /**
+     * Returns the preferences for the user queries of a repository.
+     *
+     * @param repositoryId the identifier of a repository
+     * @return the preferences for the user queries of the repository
+     */
+    private static Preferences getPreferences(final String repositoryId)
+    {
+        return NbPreferences.forModule(BitbucketConnector.class)
+            .node(NODE).node(repositoryId);
+    }
+
+    /**
+     * Binds this registry to the identifier of the repository if it is not
+     * bound yet, so that the user queries are persisted from then on.
+     * User queries saved before are stored under the identifier; if there
+     * is none, those already persisted under it are loaded.
+     *
+     * @param repositoryId the identifier of the repository
+     */
+    void bind(final String repositoryId)
+    {
+        synchronized (this) {
+            if (preferences != null) {
+                return;
+            }
+            preferences = getPreferences(repositoryId);
+            if (predefinedQueries == null) {
+                // The user queries will be loaded on first use.
+                return;
+            }
+            if (userQueries.isEmpty()) {
+                loadUserQueries();
+                queries = loadQueries();
+            }
+            else {
+                storeUserQueries();
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Returns all the queries.
+     * The same collection is returned until the list of the queries
+     * changes.
+     *
+     * @return an unmodifiable collection of the queries
+     */
+    Collection<BitbucketQuery> getQueries()
+    {
+        Collection<BitbucketQuery> value = queries;
+        if (value == null) {
+            synchronized (this) {
+                value = queries;
+                if (value == null) {
+                    value = loadQueries();
+                    queries = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Creates a new query that is not registered yet.
+     *
+     * @return a new query
+     */
+    BitbucketQuery createQuery()
+    {
+        return new BitbucketQuery(repository, this);
+    }
+
+    /**
+     * Returns {@code true} if a query is a registered user query.
+     *
+     * @param query a query
+     * @return {@code true} if the query is a registered user query;
+     * {@code false} otherwise
+     */
+    synchronized boolean isUserQuery(final BitbucketQuery query)
+    {
+        getQueries();
+        return userQueries.contains(query);
+    }
+
+    /**
+     * Returns {@code true} if a query is a predefined query.
+     *
+     * @param query a query
+     * @return {@code true} if the query is a predefined query; {@code false}
+     * otherwise
+     */
+    synchronized boolean isPredefinedQuery(final BitbucketQuery query)
+    {
+        getQueries();
+        return predefinedQueries.contains(query);
+    }
+
+    /**
+     * Registers a query as a user query or saves its changes.
+     * A query without a display name is given a generated one.
+     * Predefined queries are not persisted.
+     *
+     * @param query a query created by this registry
+     */
+    void save(final BitbucketQuery query)
+    {
+        synchronized (this) {
+            getQueries();
+            if (predefinedQueries.contains(query)) {
+                return;
+            }
+            if (query.getDisplayName() == null) {
+                query.setDisplayName(generateName());
+            }
+            if (!userQueries.contains(query)) {
+                userQueries.add(query);
+            }
+            changed();
+        }
+        listener.run();
+    }
+
+    /**
+     * Removes a user query.
+     *
+     * @param query a registered user query
+     */
+    void remove(final BitbucketQuery query)
+    {
+        synchronized (this) {
+            getQueries();
+            if (!userQueries.remove(query)) {
+                return;
+            }
+            changed();
+        }
+        listener.run();
+    }
+
+    /**
+     * Deletes the persisted user queries.
+     */
+    synchronized void delete()
+    {
+        predefinedQueries = null;
+        userQueries.clear();
+        queries = null;
+        if (preferences != null) {
+            try {
+                preferences.removeNode();
+            }
+            catch (BackingStoreException | IllegalStateException exception) {
+                LOGGER.log(Level.INFO, "Failed to delete queries", exception);
+            }
+        }
+    }
+
+    /**
+     * Generates a display name that no query has.
+     *
+     * @return a new display name
+     */
+    private String generateName()
+    {
+        assert Thread.holdsLock(this);
+        int number = userQueries.size() + 1;
+        String name = GENERATED_NAME_PREFIX + number;
+        while (isNameUsed(name)) {
+            number++;
+            name = GENERATED_NAME_PREFIX + number;
+        }
+        return name;
+    }
+
+    /**
+     * Returns {@code true} if a query has a display name.
+     *
+     * @param name a display name
+     * @return {@code true} if a query has the display name; {@code false}
+     * otherwise
+     */
+    private boolean isNameUsed(final String name)
+    {
+        assert Thread.holdsLock(this);
+        for (BitbucketQuery query : getQueries()) {
+            if (name.equals(query.getDisplayName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Persists the user queries and takes a new snapshot.
+     */
+    private void changed()
+    {
+        assert Thread.holdsLock(this);
+        storeUserQueries();
+        queries = loadQueries();
+    }
+
+    /**
+     * Takes a snapshot of all the queries, creating the predefined ones
+     * and loading the user ones on the first call.
+     *
+     * @return an unmodifiable collection of the queries
+     */
+    private Collection<BitbucketQuery> loadQueries()
+    {
+        assert Thread.holdsLock(this);
+        if (predefinedQueries == null) {
+            predefinedQueries = Arrays.asList(
+                newQuery("All Issues", null),
+                newQuery("Open Issues", OPEN_ISSUES_FILTER));
+            loadUserQueries();
+        }
+
+        List<BitbucketQuery> value = new ArrayList<>(predefinedQueries);
+        value.addAll(userQueries);
+        return Collections.unmodifiableList(value);
+    }
+
+    /**
+     * Creates a query.
+     *
+     * @param name the display name of the query
+     * @param filter the filter expression of the query, or {@code null}
+     * @return a new query
+     */
+    private BitbucketQuery newQuery(final String name, final String filter)
+    {
+        BitbucketQuery query = createQuery();
+        query.setDisplayName(name);
+        query.setFilter(filter);
+        return query;
+    }
+
+    /**
+     * Loads the user queries from the preferences.
+     */
+    private void loadUserQueries()
+    {
+        if (preferences != null) {
+            int count = preferences.getInt(COUNT, 0);
+            for (int i = 0; i < count; i++) {
+                String name = preferences.get(NAME_PREFIX + i, null);
+                if (name != null) {
+                    userQueries.add(newQuery(
+                        name, preferences.get(FILTER_PREFIX + i, null)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the user queries to the preferences.
+     */
+    private void storeUserQueries()
+    {
+        if (preferences != null) {
+            try {
+                preferences.clear();
+                preferences.putInt(COUNT, userQueries.size());
+                for (int i = 0; i < userQueries.size(); i++) {
+                    BitbucketQuery query = userQueries.get(i);
+                    preferences.put(NAME_PREFIX + i, query.getDisplayName());
+                    if (query.getFilter() != null) {
+                        preferences.put(FILTER_PREFIX + i, query.getFilter());
+                    }
+                }
+            }
+            catch (BackingStoreException exception) {
+                LOGGER.log(Level.WARNING, "Failed to save queries", exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * RefreshCoordinator.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.ws.rs.ProcessingException;
+import org.openide.util.RequestProcessor;
+import org.vx68k.netbeans.module.bitbucket.RequestScheduler.Lane;
+
+/**
+ * Coordinator of refreshes across repositories.
+ * <p>Refreshes of all repositories and queries run on one request
+ * processor with a bounded number of threads, so that they proceed in
+ * parallel without taking more connections than the shared HTTP client
+ * allows.
+ * Repositories registered within a short delay are refreshed together in
+ * the background.
+ * A repository refresh synchronizes only its "All Issues" result; the
+ * results of queries that can be evaluated locally are derived from
+ * it.</p>
+ * <p>Query results are fetched into the issue store of a repository in
+ * full the first time, and then synchronized incrementally from the
+ * watermark of the stored result.
+ * Concurrent fetches or synchronizations of the same result share one.
+ * If the server is unreachable, the stored result is served stale if
+ * any.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class RefreshCoordinator
+{
+    /**
+     * Delay in milliseconds for which registered repositories are
+     * collected before they are refreshed together.
+     */
+    private static final int BATCH_DELAY = 5000;
+
+    /**
+     * Number of issues in a page passed to a consumer.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * Margin in minutes subtracted from the current time to make a
+     * watermark, so that clock skew does not make updates missed.
+     */
+    private static final int WATERMARK_MARGIN = 5;
+
+    /**
+     * Formatter for watermarks.
+     */
+    private static final DateTimeFormatter WATERMARK_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxxx");
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(RefreshCoordinator.class.getName());
+
+    /**
+     * Request processor for refreshes.
+     * Its tasks are interrupted when cancelled.
+     */
+    private final RequestProcessor processor;
+
+    /**
+     * Task to refresh the pending repositories.
+     */
+    private final RequestProcessor.Task batchTask;
+
+    /**
+     * Repositories pending a refresh.
+     */
+    private final Set<BitbucketIssueTrackerProxy> pendingRepositories =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Coalescer of full fetches of query results by store and filter.
+     */
+    private final SingleFlight<Map.Entry<IssueStore, String>,
+        List<IssueRecord>> fetchCalls = new SingleFlight<>();
+
+    /**
+     * Coalescer of synchronizations of query results by store and filter.
+     */
+    private final SingleFlight<Map.Entry<IssueStore, String>,
+        List<IssueRecord>> syncCalls = new SingleFlight<>();
+
+    /**
+     * Initializes the object.
+     *
+     * @param concurrency the maximum number of refreshes run in parallel
+     */
+    RefreshCoordinator(final int concurrency)
+    {
+        this.processor = new RequestProcessor(
+            RefreshCoordinator.class.getName(), Math.max(concurrency, 1),
+            true);
+        this.batchTask = processor.create(this::refreshPending);
+    }
+
+    /**
+     * Posts a refresh task.
+     *
+     * @param task a refresh task
+     * @return the posted task
+     */
+    RequestProcessor.Task post(final Runnable task)
+    {
+        return processor.post(task);
+    }
+
+    /**
+     * Schedules a repository to be refreshed in the background with the
+     * others registered around the same time.
+     *
+     * @param repository a repository
+     */
+    void schedule(final BitbucketIssueTrackerProxy repository)
+    {
+        synchronized (pendingRepositories) {
+            pendingRepositories.add(repository);
+        }
+        batchTask.schedule(BATCH_DELAY);
+    }
+
+    /**
+     * Cancels a scheduled refresh of a repository.
+     *
+     * @param repository a repository
+     */
+    void cancel(final BitbucketIssueTrackerProxy repository)
+    {
+        synchronized (pendingRepositories) {
+            pendingRepositories.remove(repository);
+        }
+    }
+
+    /**
+     * Refreshes the pending repositories in parallel.
+     * They are refreshed at the lowest priority, since nobody is waiting
+     * for them.
+     */
+    private void refreshPending()
+    {
+        List<BitbucketIssueTrackerProxy> repositories;
+        synchronized (pendingRepositories) {
+            repositories = new ArrayList<>(pendingRepositories);
+            pendingRepositories.clear();
+        }
+        repositories.forEach((repository) -> processor.post(
+            () -> refresh(repository), 0, Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Refreshes a repository.
+     *
+     * @param repository a repository
+     */
+    private static void refresh(final BitbucketIssueTrackerProxy repository)
+    {
+        try {
+            repository.syncIssues(null);
+        }
+        catch (CancellationException exception) {
+            LOGGER.log(Level.FINE, "Refresh cancelled", exception);
+        }
+        catch (RuntimeException exception) {
+            LOGGER.log(Level.INFO, "Failed to refresh a repository",
+                exception);
+        }
+    }
+
+    /**
+     * Returns a new watermark for a synchronization starting now.
+     *
+     * @return a new watermark
+     */
+    static String newWatermark()
+    {
+        return OffsetDateTime.now(ZoneOffset.UTC)
+            .minusMinutes(WATERMARK_MARGIN)
+            .truncatedTo(ChronoUnit.SECONDS)
+            .format(WATERMARK_FORMATTER);
+    }
+
+    /**
+     * Returns the key of a query result.
+     *
+     * @param store an issue store
+     * @param filter a filter expression, or {@code null}
+     * @return the key of the query result
+     */
+    private static Map.Entry<IssueStore, String> getKey(
+        final IssueStore store, final String filter)
+    {
+        return new AbstractMap.SimpleImmutableEntry<>(store, filter);
+    }
+
+    /**
+     * Revalidates issues with the server in the background.
+     *
+     * @param store an issue store
+     * @param client a client for issue summaries
+     * @param ids identifiers of the issues
+     * @param consumer a consumer of the records of the issues that have
+     * changed
+     */
+    void revalidate(
+        final IssueStore store, final IssueSummaryClient client,
+        final Collection<Integer> ids,
+        final Consumer<List<IssueRecord>> consumer)
+    {
+        processor.post(() -> {
+            try {
+                consumer.accept(
+                    store.putAll(client.fetchIssues(ids, Lane.BACKGROUND)));
+            }
+            catch (RuntimeException exception) {
+                LOGGER.log(Level.FINE, "Revalidation failed", exception);
+            }
+        });
+    }
+
+    /**
+     * Fetches the issues found by a filter page by page and stores them.
+     * If the same result is being fetched by another thread, it is shared
+     * and passed to the consumer when complete.
+     * If the filter can be evaluated locally, all the issues are fetched
+     * and the filter is evaluated against them instead, so that the fetch
+     * is shared with that of all the issues.
+     * If the server is unreachable, the stored result is passed stale if
+     * any.
+     *
+     * @param store an issue store
+     * @param client a client for issue summaries
+     * @param filter a filter expression, or {@code null}
+     * @param consumer a consumer of each page of the records
+     * @return the records of the issues found by the filter
+     * @throws CancellationException if fetching was cancelled
+     */
+    List<IssueRecord> fetch(
+        final IssueStore store, final IssueSummaryClient client,
+        final String filter, final Consumer<List<IssueRecord>> consumer)
+    {
+        if (!client.isOnline()) {
+            List<IssueRecord> storedRecords = store.getResult(filter);
+            if (storedRecords != null) {
+                deliver(storedRecords, consumer);
+                return Collections.unmodifiableList(storedRecords);
+            }
+        }
+
+        if (filter != null) {
+            IssueFilter compiled = store.compile(filter);
+            if (compiled != null) {
+                List<IssueRecord> value =
+                    derive(store, client, filter, compiled, consumer);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+
+        AtomicBoolean fetched = new AtomicBoolean(false);
+        List<IssueRecord> value = fetchCalls.call(getKey(store, filter),
+            () -> {
+                fetched.set(true);
+                return fetchAll(store, client, filter, consumer);
+            });
+        if (!fetched.get()) {
+            deliver(value, consumer);
+        }
+        return value;
+    }
+
+    /**
+     * Passes records to a consumer page by page.
+     *
+     * @param records records of issues
+     * @param consumer a consumer of each page of the records
+     */
+    private static void deliver(
+        final List<IssueRecord> records,
+        final Consumer<List<IssueRecord>> consumer)
+    {
+        for (int i = 0; i < records.size(); i += PAGE_SIZE) {
+            consumer.accept(
+                records.subList(i, Math.min(i + PAGE_SIZE, records.size())));
+        }
+    }
+
+    /**
+     * Fetches all the issues page by page and selects those found by a
+     * filter.
+     * The pages of the selected issues are passed to the consumer until
+     * the filter cannot be evaluated for an issue.
+     *
+     * @param store an issue store
+     * @param client a client for issue summaries
+     * @param filter a filter expression
+     * @param compiled the filter compiled for local evaluation
+     * @param consumer a consumer of each page of the selected records
+     * @return the selected records if the filter could be evaluated for
+     * all the issues; {@code null} otherwise
+     * @throws CancellationException if fetching was cancelled
+     */
+    private List<IssueRecord> derive(
+        final IssueStore store, final IssueSummaryClient client,
+        final String filter, final IssueFilter compiled,
+        final Consumer<List<IssueRecord>> consumer)
+    {
+        AtomicBoolean unknown = new AtomicBoolean(false);
+        List<IssueRecord> allRecords = fetch(store, client, null, (page) -> {
+            List<IssueRecord> selected = IssueStore.select(compiled, page);
+            if (selected == null) {
+                unknown.set(true);
+            }
+            else if (!selected.isEmpty() && !unknown.get()) {
+                consumer.accept(selected);
+            }
+        });
+
+        List<IssueRecord> value = IssueStore.select(compiled, allRecords);
+        if (value != null) {
+            store.putResult(filter, value, store.getWatermark(null), true);
+            value = Collections.unmodifiableList(value);
+        }
+        return value;
+    }
+
+    /**
+     * Fetches the issues found by a filter page by page and stores them
+     * as the full result of the filter.
+     *
+     * @param store an issue store
+     * @param client a client for issue summaries
+     * @param filter a filter expression, or {@code null}
+     * @param consumer a consumer of each page of the records
+     * @return the records of the issues found by the filter
+     * @throws CancellationException if fetching was cancelled
+     */
+    private static List<IssueRecord> fetchAll(
+        final IssueStore store, final IssueSummaryClient client,
+        final String filter, final Consumer<List<IssueRecord>> consumer)
+    {
+        String watermark = newWatermark();
+        List<IssueRecord> value = new ArrayList<>();
+        client.fetchPages(filter, (page) -> {
+            List<IssueRecord> storedPage = store.putAll(page);
+            value.addAll(storedPage);
+            consumer.accept(storedPage);
+        });
+        store.putResult(filter, value, watermark, true);
+        return Collections.unmodifiableList(value);
+    }
+
+    /**
+     * Synchronizes the stored issues found by a filter with the server.
+     * Concurrent synchronizations of the same result share one.
+     * If the server is unreachable, the stored result is returned stale if
+     * any.
+     *
+     * @param store an issue store
+     * @param client a client for issue summaries
+     * @param filter a filter expression, or {@code null}
+     * @return the records of the synchronized issues found by the filter
+     */
+    List<IssueRecord> sync(
+        final IssueStore store, final IssueSummaryClient client,
+        final String filter)
+    {
+        List<IssueRecord> storedRecords = null;
+        if (!client.isOnline()) {
+            storedRecords = store.getResult(filter);
+            if (storedRecords != null) {
+                return storedRecords;
+            }
+        }
+
+        try {
+            return syncCalls.call(getKey(store, filter),
+                () -> synchronize(store, client, filter));
+        }
+        catch (ProcessingException exception) {
+            if (!client.isOnline()) {
+                storedRecords = store.getResult(filter);
+            }
+            if (storedRecords == null) {
+                throw exception;
+            }
+            LOGGER.log(Level.FINE, "Serving stored issues while offline",
+                exception);
+            return storedRecords;
+        }
+    }
+
+    /**
+     * Synchronizes the stored issues found by a filter with the server.
+     * If the stored result has a watermark, only the issues updated since
+     * then are fetched and merged into it; otherwise all the issues found
+     * by the filter are fetched.
+     * If the filter can be evaluated locally, all the issues are
+     * synchronized and the filter is evaluated against them instead.
+     *
+     * @param store an issue store
+     * @param client a client for issue summaries
+     * @param filter a filter expression, or {@code null}
+     * @return the records of the synchronized issues found by the filter
+     */
+    private List<IssueRecord> synchronize(
+        final IssueStore store, final IssueSummaryClient client,
+        final String filter)
+    {
+        if (filter != null) {
+            IssueFilter compiled = store.compile(filter);
+            if (compiled != null) {
+                List<IssueRecord> value = IssueStore.select(
+                    compiled, sync(store, client, null));
+                if (value != null) {
+                    store.putResult(
+                        filter, value, store.getWatermark(null), false);
+                    return value;
+                }
+            }
+        }
+
+        String since = store.getWatermark(filter);
+        List<IssueRecord> storedRecords = store.getResult(filter);
+        if (since == null || storedRecords == null) {
+            return fetch(store, client, filter, (page) -> { });
+        }
+
+        String watermark = newWatermark();
+        String updated = "updated_on > " + since;
+        List<IssueRecord> matching;
+        Set<Integer> changedIds;
+        if (filter == null) {
+            matching = store.putAll(client.list(updated, Lane.BACKGROUND));
+            changedIds = matching.stream()
+                .map(IssueRecord::getId)
+                .collect(Collectors.toSet());
+        }
+        else {
+            // Issues that no longer match the filter must be removed.
+            changedIds = store.putAll(client.list(updated, Lane.BACKGROUND))
+                .stream()
+                .map(IssueRecord::getId)
+                .collect(Collectors.toSet());
+            matching = Collections.emptyList();
+            if (!changedIds.isEmpty()) {
+                String changed = "(" + filter + ") AND " + updated;
+                matching =
+                    store.putAll(client.list(changed, Lane.BACKGROUND));
+            }
+        }
+
+        // Stored issues keep their positions unless they no longer match.
+        Set<Integer> matchingIds = matching.stream()
+            .map(IssueRecord::getId)
+            .collect(Collectors.toSet());
+        Map<Integer, IssueRecord> merged = new LinkedHashMap<>();
+        storedRecords.stream()
+            .filter((record) -> !changedIds.contains(record.getId())
+                || matchingIds.contains(record.getId()))
+            .forEach((record) -> merged.put(record.getId(), record));
+        matching.forEach((record) -> merged.put(record.getId(), record));
+
+        List<IssueRecord> value = new ArrayList<>(merged.values());
+        store.putResult(filter, value, watermark, false);
+        return value;
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * RepositoryIndex.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import org.openide.modules.Places;
+import org.openide.util.RequestProcessor;
+import org.vx68k.netbeans.module.bitbucket.RequestScheduler.Lane;
+
+/**
+ * Local index of the full names of the repositories of owners.
+ * <p>The repositories of an owner are listed with a field projection in
+ * large pages the first time its name is used, and the list is refreshed
+ * incrementally with only the repositories updated since afterwards.
+ * The index is kept in a cache file across sessions, and full names are
+ * found by prefix with a trie, so that no request is made per keystroke.
+ * A full list is fetched again once a day so that deleted repositories
+ * disappear.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class RepositoryIndex
+{
+    /**
+     * Base URI of the Bitbucket Cloud API.
+     */
+    private static final String API_BASE = "https://api.bitbucket.org/2.0";
+
+    /**
+     * Fields projected for a page of repositories.
+     */
+    private static final String FIELDS = "next,values.full_name";
+
+    /**
+     * Number of repositories requested in a page.
+     */
+    private static final int PAGE_LENGTH = 100;
+
+    /**
+     * Interval in milliseconds after which the repositories of an owner
+     * are refreshed.
+     */
+    private static final long REFRESH_INTERVAL = 60L * 60 * 1000;
+
+    /**
+     * Interval in milliseconds after which the repositories of an owner
+     * are fully listed again.
+     */
+    private static final long FULL_REFRESH_INTERVAL = 24L * 60 * 60 * 1000;
+
+    /**
+     * Magic number at the head of an index file.
+     */
+    private static final int MAGIC = 0x42425249;
+
+    /**
+     * Version of the index file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Delay in milliseconds before changes are saved.
+     */
+    private static final int SAVE_DELAY = 2000;
+
+    /**
+     * Name of the cache subdirectory for the index file.
+     */
+    private static final String DIRECTORY =
+        BitbucketConnector.ID + "/repositories";
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(RepositoryIndex.class.getName());
+
+    /**
+     * Request processor to refresh and save the index.
+     */
+    private static final RequestProcessor REFRESHER =
+        new RequestProcessor(RepositoryIndex.class.getName());
+
+    /**
+     * HTTP client.
+     */
+    private final Client client;
+
+    /**
+     * Request scheduler.
+     */
+    private final RequestScheduler scheduler;
+
+    /**
+     * Connectivity monitor.
+     */
+    private final ConnectivityMonitor monitor;
+
+    /**
+     * Index file.
+     */
+    private final File file;
+
+    /**
+     * Task to save this index.
+     */
+    private final RequestProcessor.Task saveTask;
+
+    /**
+     * Indexed owners by lower-case name.
+     */
+    private final Map<String, Owner> owners = new LinkedHashMap<>();
+
+    /**
+     * Trie of the indexed full names.
+     */
+    private final NameTrie names = new NameTrie();
+
+    /**
+     * Lower-case names of the owners being refreshed.
+     */
+    private final Set<String> refreshing = new HashSet<>();
+
+    /**
+     * {@code true} if this index has been loaded.
+     */
+    private boolean loaded = false;
+
+    /**
+     * Initializes the object.
+     * The index file is loaded in the background.
+     *
+     * @param client an HTTP client
+     * @param scheduler a request scheduler
+     * @param monitor a connectivity monitor
+     */
+    RepositoryIndex(
+        final Client client, final RequestScheduler scheduler,
+        final ConnectivityMonitor monitor)
+    {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.monitor = monitor;
+        this.file = new File(
+            Places.getCacheSubdirectory(DIRECTORY), "index.dat");
+        this.saveTask = REFRESHER.create(this::save);
+        REFRESHER.post(() -> {
+            synchronized (this) {
+                ensureLoaded();
+            }
+        });
+    }
+
+    /**
+     * Returns the key for an owner name.
+     *
+     * @param owner an owner name
+     * @return the key for the owner name
+     */
+    private static String getKey(final String owner)
+    {
+        return owner.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Finds the full names of the indexed repositories that start with a
+     * prefix.
+     *
+     * @param prefix a prefix
+     * @param limit the maximum number of full names to find
+     * @return the full names found, in order
+     */
+    synchronized List<String> find(final String prefix, final int limit)
+    {
+        ensureLoaded();
+        return names.find(prefix, limit);
+    }
+
+    /**
+     * Refreshes the repositories of an owner in the background unless they
+     * have been refreshed recently.
+     *
+     * @param owner an owner name
+     * @param callback an action to run if the index has changed
+     */
+    void refresh(final String owner, final Runnable callback)
+    {
+        if (!monitor.isOnline()) {
+            return;
+        }
+
+        String key = getKey(owner);
+        long now = System.currentTimeMillis();
+        Owner previous;
+        synchronized (this) {
+            ensureLoaded();
+            previous = owners.get(key);
+            if (previous != null && now < previous.refreshed + REFRESH_INTERVAL
+                || !refreshing.add(key)) {
+                return;
+            }
+        }
+
+        REFRESHER.post(() -> {
+            try {
+                if (fetch(owner, previous, now)) {
+                    callback.run();
+                }
+            }
+            finally {
+                synchronized (this) {
+                    refreshing.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches the repositories of an owner and merges them into the index.
+     *
+     * @param owner an owner name
+     * @param previous the previous entry for the owner, or {@code null}
+     * @param now the current time in milliseconds
+     * @return {@code true} if the index has changed; {@code false}
+     * otherwise
+     */
+    private boolean fetch(
+        final String owner, final Owner previous, final long now)
+    {
+        boolean full = previous == null || previous.watermark == null
+            || now >= previous.fullyRefreshed + FULL_REFRESH_INTERVAL;
+        String watermark = RefreshCoordinator.newWatermark();
+        WebTarget target = client.target(API_BASE)
+            .path("repositories").path(owner)
+            .queryParam("fields", FIELDS)
+            .queryParam("pagelen", PAGE_LENGTH);
+        if (!full) {
+            target = target.queryParam("q", "{q}")
+                .resolveTemplate("q", "updated_on > " + previous.watermark);
+        }
+
+        List<String> fetched = new ArrayList<>();
+        try {
+            while (target != null) {
+                WebTarget current = target;
+                JsonObject page = scheduler.execute(Lane.BACKGROUND,
+                    () -> monitor.execute(() -> readPage(current)));
+                for (JsonValue value : page.getJsonArray("values")) {
+                    if (value instanceof JsonObject) {
+                        String name =
+                            ((JsonObject) value).getString("full_name", null);
+                        if (name != null) {
+                            fetched.add(name);
+                        }
+                    }
+                }
+                target = null;
+                String next = page.getString("next", null);
+                if (next != null) {
+                    target = client.target(next);
+                }
+            }
+        }
+        catch (NotFoundException exception) {
+            // The owner does not exist; it is remembered with no
+            // repositories.
+            full = true;
+            watermark = null;
+        }
+        catch (RuntimeException exception) {
+            LOGGER.log(Level.FINE, "Failed to list repositories", exception);
+            return false;
+        }
+
+        synchronized (this) {
+            String key = getKey(owner);
+            Owner existing = owners.get(key);
+            Set<String> merged = new LinkedHashSet<>();
+            long fullyRefreshed = now;
+            if (!full && existing != null) {
+                merged.addAll(existing.names);
+                fullyRefreshed = existing.fullyRefreshed;
+            }
+            merged.addAll(fetched);
+
+            boolean changed = existing == null
+                || !new LinkedHashSet<>(existing.names).equals(merged);
+            owners.put(key, new Owner(new ArrayList<>(merged), watermark,
+                now, fullyRefreshed));
+            if (changed) {
+                rebuild();
+            }
+            saveTask.schedule(SAVE_DELAY);
+            return changed;
+        }
+    }
+
+    /**
+     * Reads a page of repositories.
+     *
+     * @param target a target for the page
+     * @return the page
+     */
+    private static JsonObject readPage(final WebTarget target)
+    {
+        try (InputStream stream = target.request(MediaType.APPLICATION_JSON)
+                .get(InputStream.class);
+            JsonReader reader = Json.createReader(stream)) {
+            return reader.readObject();
+        }
+        catch (IOException exception) {
+            throw new IllegalStateException(
+                "Failed to read repositories", exception);
+        }
+    }
+
+    /**
+     * Rebuilds the trie from the indexed owners.
+     */
+    private void rebuild()
+    {
+        assert Thread.holdsLock(this);
+        names.clear();
+        owners.values().forEach((owner) -> owner.names.forEach(names::add));
+    }
+
+    /**
+     * Loads this index from the file if not loaded yet.
+     */
+    private void ensureLoaded()
+    {
+        assert Thread.holdsLock(this);
+        if (!loaded) {
+            loaded = true;
+            if (file.isFile()) {
+                try {
+                    load();
+                }
+                catch (IOException exception) {
+                    LOGGER.log(Level.INFO, "Discarding repository index",
+                        exception);
+                    owners.clear();
+                }
+                rebuild();
+            }
+        }
+    }
+
+    /**
+     * Loads this index from the file.
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private void load() throws IOException
+    {
+        try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unsupported repository index format");
+            }
+
+            int ownerCount = input.readInt();
+            for (int i = 0; i < ownerCount; i++) {
+                String key = input.readUTF();
+                String watermark = IssueRecord.readString(input);
+                long refreshed = input.readLong();
+                long fullyRefreshed = input.readLong();
+                int nameCount = input.readInt();
+                List<String> ownerNames = new ArrayList<>(nameCount);
+                for (int j = 0; j < nameCount; j++) {
+                    ownerNames.add(input.readUTF());
+                }
+                owners.put(key, new Owner(
+                    ownerNames, watermark, refreshed, fullyRefreshed));
+            }
+        }
+    }
+
+    /**
+     * Saves this index to the file.
+     */
+    private void save()
+    {
+        Map<String, Owner> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(owners);
+        }
+
+        File temporary = new File(file.getParentFile(), file.getName() + "~");
+        try {
+            try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+
+                output.writeInt(snapshot.size());
+                for (Map.Entry<String, Owner> entry : snapshot.entrySet()) {
+                    Owner owner = entry.getValue();
+                    output.writeUTF(entry.getKey());
+                    IssueRecord.writeString(output, owner.watermark);
+                    output.writeLong(owner.refreshed);
+                    output.writeLong(owner.fullyRefreshed);
+                    output.writeInt(owner.names.size());
+                    for (String name : owner.names) {
+                        output.writeUTF(name);
+                    }
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Failed to save repository index",
+                exception);
+        }
+    }
+
+    /**
+     * Indexed owner.
+     * Objects of this class are immutable.
+     */
+    private static final class Owner
+    {
+        /**
+         * Full names of the repositories of the owner.
+         */
+        private final List<String> names;
+
+        /**
+         * Watermark for the next incremental refresh, or {@code null} if
+         * the next refresh must be full.
+         */
+        private final String watermark;
+
+        /**
+         * Time in milliseconds when the owner was refreshed last.
+         */
+        private final long refreshed;
+
+        /**
+         * Time in milliseconds when the owner was fully refreshed last.
+         */
+        private final long fullyRefreshed;
+
+        /**
+         * Initializes the object.
+         *
+         * @param names the full names of the repositories of the owner
+         * @param watermark the watermark for the next incremental refresh,
+         * or {@code null}
+         * @param refreshed the time when the owner was refreshed last
+         * @param fullyRefreshed the time when the owner was fully refreshed
+         * last
+         */
+        Owner(
+            final List<String> names, final String watermark,
+            final long refreshed, final long fullyRefreshed)
+        {
+            this.names = Collections.unmodifiableList(names);
+            this.watermark = watermark;
+            this.refreshed = refreshed;
+            this.fullyRefreshed = fullyRefreshed;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * RequestScheduler.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * Scheduler of requests to Bitbucket Cloud within a rate limit.
+ * <p>Requests take tokens from a bucket that is refilled at a constant
+ * rate.
+ * Interactive requests take precedence over background ones, which also
+ * leave a reserve of tokens for interactive requests.
+ * When the server answers with status 429, all requests are held back for
+ * the time given by its {@code Retry-After} header.
+ * A throttled background request is retried up to {@link #MAX_RETRIES}
+ * times, while an interactive request waits for a hold of at most
+ * {@link #MAX_INTERACTIVE_HOLD} seconds and fails with status 429 as soon
+ * as a longer one is known, so that a user is never left waiting for
+ * minutes.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class RequestScheduler
+{
+    /**
+     * Lane of a request.
+     */
+    enum Lane
+    {
+        /**
+         * Lane for requests a user is waiting for.
+         */
+        INTERACTIVE,
+
+        /**
+         * Lane for requests nobody is waiting for.
+         */
+        BACKGROUND,
+    }
+
+    /**
+     * HTTP status code for too many requests.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Delay in seconds before retrying when the server gave no valid
+     * {@code Retry-After} header.
+     */
+    private static final long DEFAULT_RETRY_AFTER = 60;
+
+    /**
+     * Maximum number of retries of a throttled background request.
+     */
+    private static final int MAX_RETRIES = 3;
+
+    /**
+     * Maximum time in seconds an interactive request waits for a hold.
+     */
+    private static final long MAX_INTERACTIVE_HOLD = 5;
+
+    /**
+     * Maximum number of retries of a throttled interactive request.
+     */
+    private static final int MAX_INTERACTIVE_RETRIES = 1;
+
+    /**
+     * Number of tokens background requests leave for interactive ones.
+     */
+    private static final double INTERACTIVE_RESERVE = 2;
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(RequestScheduler.class.getName());
+
+    /**
+     * Tokens added per nanosecond.
+     */
+    private final double refillRate;
+
+    /**
+     * Capacity of the bucket.
+     */
+    private final double capacity;
+
+    /**
+     * Tokens in the bucket.
+     */
+    private double tokens;
+
+    /**
+     * Time in nanoseconds when the bucket was refilled last.
+     */
+    private long refillTime;
+
+    /**
+     * Time in nanoseconds until which all requests are held back.
+     */
+    private long holdUntil;
+
+    /**
+     * Number of interactive requests waiting for tokens.
+     */
+    private int interactiveWaiting = 0;
+
+    /**
+     * Initializes the object.
+     *
+     * @param requestsPerHour the number of requests allowed per hour
+     * @param burst the number of requests allowed in a burst
+     */
+    RequestScheduler(final int requestsPerHour, final int burst)
+    {
+        this.refillRate = requestsPerHour / (double) TimeUnit.HOURS.toNanos(1);
+        this.capacity = Math.max(burst, 1);
+        this.tokens = capacity;
+        this.refillTime = System.nanoTime();
+        this.holdUntil = refillTime;
+    }
+
+    /**
+     * Executes a request within the rate limit.
+     *
+     * @param <T> type of the result
+     * @param lane the lane of the request
+     * @param request a supplier that makes the request
+     * @return the result of the request
+     * @throws CancellationException if the current thread was interrupted
+     * while waiting
+     * @throws WebApplicationException with status 429 if an interactive
+     * request would be held back longer than allowed
+     */
+    <T> T execute(final Lane lane, final Supplier<T> request)
+    {
+        boolean interactive = lane == Lane.INTERACTIVE;
+        int maxRetries = MAX_RETRIES;
+        if (interactive) {
+            maxRetries = MAX_INTERACTIVE_RETRIES;
+        }
+        for (int retries = 0;; retries++) {
+            try {
+                acquire(lane);
+            }
+            catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Request cancelled");
+            }
+
+            try {
+                return request.get();
+            }
+            catch (RuntimeException exception) {
+                Response response = getThrottledResponse(exception);
+                if (response == null) {
+                    throw exception;
+                }
+                long delay = getRetryAfter(response);
+                LOGGER.log(Level.INFO,
+                    "Throttled by the server; holding back for {0} s",
+                    delay);
+                holdBack(TimeUnit.SECONDS.toNanos(delay));
+                if (retries >= maxRetries
+                    || interactive && delay > MAX_INTERACTIVE_HOLD) {
+                    throw exception;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a token for a request, waiting as long as necessary.
+     * An interactive request does not wait for a hold longer than
+     * {@link #MAX_INTERACTIVE_HOLD} seconds.
+     *
+     * @param lane the lane of the request
+     * @throws InterruptedException if the current thread was interrupted
+     * @throws WebApplicationException with status 429 if an interactive
+     * request would be held back longer than allowed
+     */
+    private synchronized void acquire(final Lane lane)
+        throws InterruptedException
+    {
+        boolean interactive = lane == Lane.INTERACTIVE;
+        double required = 1;
+        if (interactive) {
+            interactiveWaiting++;
+        }
+        else {
+            required += INTERACTIVE_RESERVE;
+        }
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity,
+                    tokens + (now - refillTime) * refillRate);
+                refillTime = now;
+
+                long delay = holdUntil - now;
+                if (interactive
+                    && delay > TimeUnit.SECONDS.toNanos(MAX_INTERACTIVE_HOLD)) {
+                    throw heldBack(delay);
+                }
+                if (delay <= 0 && (interactive || interactiveWaiting == 0)) {
+                    if (tokens >= Math.min(required, capacity)) {
+                        tokens -= 1;
+                        return;
+                    }
+                    delay = (long) Math.ceil(
+                        (Math.min(required, capacity) - tokens) / refillRate);
+                }
+                if (delay <= 0) {
+                    wait();
+                }
+                else {
+                    TimeUnit.NANOSECONDS.timedWait(this, delay);
+                }
+            }
+        }
+        finally {
+            if (interactive) {
+                interactiveWaiting--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Holds back all requests for a time.
+     *
+     * @param delay the time in nanoseconds
+     */
+    private synchronized void holdBack(final long delay)
+    {
+        long until = System.nanoTime() + delay;
+        if (until - holdUntil > 0) {
+            holdUntil = until;
+        }
+        tokens = 0;
+        notifyAll();
+    }
+
+    /**
+     * Returns an exception for a request that is not made because of a
+     * hold.
+     *
+     * @param delay the remaining time of the hold in nanoseconds
+     * @return an exception with status 429
+     */
+    private static WebApplicationException heldBack(final long delay)
+    {
+        long seconds = TimeUnit.NANOSECONDS.toSeconds(delay) + 1;
+        return new WebApplicationException(
+            "Held back after being throttled by the server",
+            Response.status(TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, seconds).build());
+    }
+
+    /**
+     * Returns the response of a throttled request.
+     *
+     * @param exception an exception thrown by a request
+     * @return the response if the request was throttled; {@code null}
+     * otherwise
+     */
+    private static Response getThrottledResponse(final Throwable exception)
+    {
+        for (Throwable t = exception; t != null; t = t.getCause()) {
+            if (t instanceof WebApplicationException) {
+                Response response = ((WebApplicationException) t).getResponse();
+                if (response != null
+                    && response.getStatus() == TOO_MANY_REQUESTS) {
+                    return response;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the delay given by the {@code Retry-After} header of a
+     * response.
+     *
+     * @param response a response
+     * @return the delay in seconds
+     */
+    private static long getRetryAfter(final Response response)
+    {
+        long value = DEFAULT_RETRY_AFTER;
+        String retryAfter = response.getHeaderString(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null) {
+            try {
+                value = Math.max(Long.parseLong(retryAfter.trim()), 1);
+            }
+            catch (NumberFormatException exception) {
+                LOGGER.log(Level.FINE, "Unsupported Retry-After: {0}",
+                    retryAfter);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * SingleFlight.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalescer of concurrent calls for the same key.
+ * <p>While a call for a key is in flight, other calls for the same key wait
+ * for it and share its result instead of making their own.
+ * If the call in flight was cancelled, a waiting call is made again on its
+ * own.</p>
+ *
+ * @param <K> type of keys
+ * @param <V> type of results
+ * @author Kaz Nishimura
+ */
+final class SingleFlight<K, V>
+{
+    /**
+     * Calls in flight by key.
+     */
+    private final ConcurrentMap<K, CompletableFuture<V>> calls =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Makes a call for a key unless one is in flight.
+     *
+     * @param key a key of the call
+     * @param supplier a supplier that makes the call
+     * @return the result of the call
+     * @throws CancellationException if the current thread was interrupted
+     * while waiting
+     */
+    V call(final K key, final Supplier<V> supplier)
+    {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return join(key, inFlight, supplier);
+        }
+
+        try {
+            V value = supplier.get();
+            future.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error exception) {
+            future.completeExceptionally(exception);
+            throw exception;
+        }
+        finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * Waits for a call in flight.
+     * {@link CompletableFuture#get} throws the cancellation of the call as
+     * it is rather than wrapped in an {@link ExecutionException}.
+     *
+     * @param key the key of the call
+     * @param inFlight the future result of the call
+     * @param supplier a supplier to make the call again if it was cancelled
+     * @return the result of the call
+     */
+    private V join(
+        final K key, final CompletableFuture<V> inFlight,
+        final Supplier<V> supplier)
+    {
+        try {
+            return inFlight.get();
+        }
+        catch (CancellationException exception) {
+            // The call may not have been removed yet.
+            calls.remove(key, inFlight);
+            return call(key, supplier);
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Waiting cancelled");
+        }
+        catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * WeakRegistry.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Concurrent registry of values for weakly referenced keys.
+ * <p>Keys are compared by identity, so that objects that are equal but
+ * distinct never share a value.
+ * Reads do not lock, and a value is created at most once for each key even
+ * if several threads ask for it at the same time.
+ * Entries are removed after their keys have been collected.
+ * Values must not refer strongly to their keys, or the keys will never be
+ * collected.</p>
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ * @author Kaz Nishimura
+ */
+final class WeakRegistry<K, V>
+{
+    /**
+     * Values by weak key.
+     */
+    private final ConcurrentMap<WeakKey<K>, V> entries =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Queue of the keys that have been collected.
+     */
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    /**
+     * Returns the value for a key.
+     *
+     * @param key a key
+     * @return the value if any; {@code null} otherwise
+     */
+    V get(final K key)
+    {
+        return entries.get(new WeakKey<>(key, null));
+    }
+
+    /**
+     * Returns the value for a key, creating it if there is none.
+     *
+     * @param key a key
+     * @param factory a function that creates a value for the key
+     * @return the value for the key
+     */
+    V computeIfAbsent(
+        final K key, final Function<? super K, ? extends V> factory)
+    {
+        V value = get(key);
+        if (value == null) {
+            expunge();
+            value = entries.computeIfAbsent(new WeakKey<>(key, queue),
+                (weakKey) -> factory.apply(key));
+        }
+        return value;
+    }
+
+    /**
+     * Removes the value for a key.
+     *
+     * @param key a key
+     * @return the value removed if any; {@code null} otherwise
+     */
+    V remove(final K key)
+    {
+        expunge();
+        return entries.remove(new WeakKey<>(key, null));
+    }
+
+    /**
+     * Performs an action for each entry whose key has not been collected.
+     *
+     * @param action an action for each key and value
+     */
+    void forEach(final BiConsumer<? super K, ? super V> action)
+    {
+        entries.forEach((weakKey, value) -> {
+            K key = weakKey.get();
+            if (key != null) {
+                action.accept(key, value);
+            }
+        });
+    }
+
+    /**
+     * Removes the entries whose keys have been collected.
+     */
+    private void expunge()
+    {
+        for (Reference<? extends K> reference = queue.poll();
+            reference != null; reference = queue.poll()) {
+            entries.remove(reference);
+        }
+    }
+
+    /**
+     * Weak key compared by the identity of its referent.
+     *
+     * @param <K> type of the referent
+     */
+    private static final class WeakKey<K> extends WeakReference<K>
+    {
+        /**
+         * Identity hash code of the referent.
+         */
+        private final int hash;
+
+        /**
+         * Initializes the object.
+         *
+         * @param referent a referent
+         * @param queue a queue to which this key is enqueued when the
+         * referent has been collected, or {@code null}
+         */
+        WeakKey(final K referent, final ReferenceQueue<? super K> queue)
+        {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public boolean equals(final Object object)
+        {
+            if (object == this) {
+                return true;
+            }
+            if (!(object instanceof WeakKey<?>)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((WeakKey<?>) object).get();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -42,6 +42,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import org.netbeans.modules.bugtracking.spi.IssueController;
@@ -116,6 +117,12 @@ public final class BitbucketIssueController implements IssueController
      */
     private boolean changed = false;
 
+    /**
+     * Listener that updates the viewer when the data of the issue changes,
+     * for example when its details are loaded in the background.
+     */
+    private final PropertyChangeListener dataListener;
+
     /**
      * Initializes the object.
      *
@@ -128,6 +135,14 @@ public final class BitbucketIssueController implements IssueController
         this.viewer = new Viewer();
         this.editor = new Editor();
         this.support = new PropertyChangeSupport(this);
+        this.dataListener = (event) -> {
+            SwingUtilities.invokeLater(() -> {
+                BitbucketIssue issue = issueAdapter.getIssue();
+                if (issue != null) {
+                    viewer.update(issue);
+                }
+            });
+        };
 
         initComponent();
     }
@@ -237,11 +252,13 @@ public final class BitbucketIssueController implements IssueController
         viewer.update(issue);
         editor.update(issue);
         setChanged(false);
+        issueAdapter.addPropertyChangeListener(dataListener);
     }
 
     @Override
     public void closed()
     {
+        issueAdapter.removePropertyChangeListener(dataListener);
         issueAdapter.resetController();
     }
 
@@ -368,9 +385,18 @@ public final class BitbucketIssueController implements IssueController
         public void update(final BitbucketIssue issue)
         {
             title.setText(issue.getTitle());
-            reporter.setText(issue.getReporter().getDisplayName());
-            description.setText(
-                "<html>" + issue.getContent().getHtml() + "</html>");
+            // Details still loading in the background are left blank.
+            String reporterName = "";
+            if (issue.getReporter() != null) {
+                reporterName = issue.getReporter().getDisplayName();
+            }
+            reporter.setText(reporterName);
+            String html = "";
+            if (issue.getContent() != null
+                && issue.getContent().getHtml() != null) {
+                html = issue.getContent().getHtml();
+            }
+            description.setText("<html>" + html + "</html>");
         }
     }
 
@@ -517,7 +543,11 @@ public final class BitbucketIssueController implements IssueController
         public void update(final BitbucketIssue issue)
         {
             title.setText(issue.getTitle());
-            description.setText(issue.getContent().getRaw());
+            String raw = "";
+            if (issue.getContent() != null) {
+                raw = issue.getContent().getRaw();
+            }
+            description.setText(raw);
             kind.setSelectedItem(issue.getKind());
             priority.setSelectedItem(issue.getPriority());
         }
@@ -20,22 +20,46 @@
 
 package org.vx68k.netbeans.module.bitbucket.ui;
 
+import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Insets;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import org.netbeans.modules.bugtracking.spi.QueryController;
 import org.openide.util.HelpCtx;
+import org.vx68k.netbeans.module.bitbucket.BitbucketQuery;
 
 /**
  * Implementation of {@link QueryController} for Bitbucket Cloud.
+ * <p>User queries and new ones are edited in place, while predefined
+ * queries are only viewed; changes to a predefined query, if any, are
+ * saved as a new user query.</p>
  *
  * @author Kaz Nishimura
  */
 public final class BitbucketQueryController implements QueryController
 {
+    /**
+     * Length of insets.
+     */
+    private static final int INSET = 4;
+
+    /**
+     * Number of columns in text fields.
+     */
+    private static final int TEXT_COLUMNS = 40;
+
+    /**
+     * Query to edit.
+     */
+    private final BitbucketQuery query;
+
     /**
      * Property change support.
      */
@@ -46,14 +70,53 @@ public final class BitbucketQueryController implements QueryController
      */
     private JPanel component = null;
 
+    /**
+     * Text field for the filter expression.
+     */
+    private JTextField filter = null;
+
+    /**
+     * Indicates whether the filter has been changed since loaded.
+     */
+    private boolean changed = false;
+
     /**
      * Initializes the object.
+     *
+     * @param query a query to edit
      */
-    public BitbucketQueryController()
+    public BitbucketQueryController(final BitbucketQuery query)
     {
+        this.query = query;
         this.support = new PropertyChangeSupport(this);
     }
 
+    /**
+     * Sets whether the filter has been changed and fires a property change
+     * event if it differs.
+     *
+     * @param newValue a new value
+     */
+    private void setChanged(final boolean newValue)
+    {
+        boolean oldValue = changed;
+        changed = newValue;
+        support.firePropertyChange(PROP_CHANGED, oldValue, newValue);
+    }
+
+    /**
+     * Loads the filter of the query into the text field.
+     */
+    private void loadFilter()
+    {
+        String value = query.getFilter();
+        if (value == null) {
+            value = "";
+        }
+        filter.setText(value);
+        setChanged(false);
+    }
+
     /**
      * Initializes visual components.
      */
@@ -61,15 +124,62 @@ public final class BitbucketQueryController implements QueryController
     {
         component = new JPanel(new GridBagLayout());
 
-        component.add(new JLabel("Not implemented."));
+        filter = new JTextField(TEXT_COLUMNS);
+        filter.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(final DocumentEvent event)
+            {
+                setChanged(true);
+            }
+
+            @Override
+            public void removeUpdate(final DocumentEvent event)
+            {
+                setChanged(true);
+            }
+
+            @Override
+            public void changedUpdate(final DocumentEvent event)
+            {
+            }
+        });
+
+        JLabel filterLabel = new JLabel("Filter:");
+        filterLabel.setLabelFor(filter);
+        filterLabel.setDisplayedMnemonic('F');
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.anchor = GridBagConstraints.BASELINE_LEADING;
+        c.insets = new Insets(INSET, INSET, INSET, INSET);
+
+        // The first row.
+        c.gridy = 0;
+        c.weighty = 0.0;
+        c.weightx = 0.0;
+        component.add(filterLabel, c);
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridwidth = GridBagConstraints.REMAINDER;
+        c.weightx = 1.0;
+        component.add(filter, c);
+
+        // The last row to fill the rest of the vertical space.
+        c.gridy++;
+        c.fill = GridBagConstraints.NONE;
+        c.gridheight = GridBagConstraints.REMAINDER;
+        c.weighty = 1.0;
+        component.add(new JLabel(), c);
 
         component.setMinimumSize(component.getPreferredSize());
+        loadFilter();
     }
 
     @Override
     public boolean providesMode(final QueryMode mode)
     {
-        return false;
+        if (query.isPredefined()) {
+            return mode == QueryMode.VIEW;
+        }
+        return mode == QueryMode.EDIT;
     }
 
     @Override
@@ -78,6 +188,7 @@ public final class BitbucketQueryController implements QueryController
         if (component == null) {
             initComponents();
         }
+        filter.setEditable(mode == QueryMode.EDIT && !query.isPredefined());
         return component;
     }
 
@@ -90,6 +201,9 @@ public final class BitbucketQueryController implements QueryController
     @Override
     public void opened()
     {
+        if (component != null) {
+            loadFilter();
+        }
     }
 
     @Override
@@ -100,19 +214,49 @@ public final class BitbucketQueryController implements QueryController
     @Override
     public boolean saveChanges(final String name)
     {
-        return false;
+        BitbucketQuery target = query;
+        String displayName = name;
+        if (query.isPredefined()) {
+            if (!changed) {
+                return true;
+            }
+            target = query.createQuery();
+            if (displayName == null) {
+                displayName = query.getDisplayName();
+            }
+        }
+
+        if (displayName != null) {
+            target.setDisplayName(displayName);
+        }
+        if (filter != null) {
+            String value = filter.getText().trim();
+            if (value.isEmpty()) {
+                value = null;
+            }
+            target.setFilter(value);
+        }
+        target.save();
+        if (target != query) {
+            loadFilter();
+        }
+        setChanged(false);
+        return true;
     }
 
     @Override
     public boolean discardUnsavedChanges()
     {
-        return false;
+        if (component != null) {
+            loadFilter();
+        }
+        return true;
     }
 
     @Override
     public boolean isChanged()
     {
-        return false;
+        return changed;
     }
 
     @Override
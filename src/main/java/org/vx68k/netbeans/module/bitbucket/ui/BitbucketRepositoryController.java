@@ -28,21 +28,37 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ProcessingException;
 import org.netbeans.modules.bugtracking.spi.RepositoryController;
 import org.openide.util.HelpCtx;
+import org.openide.util.RequestProcessor;
+import org.vx68k.bitbucket.api.BitbucketIssueTracker;
 import org.vx68k.netbeans.module.bitbucket.BitbucketRepositoryProvider;
 
 /**
  * Implementation of {@link RepositoryController} for Bitbucket Cloud.
+ * <p>The repository name is looked up with the server in the background
+ * shortly after the user stops typing, so that the dialog never blocks on
+ * the network.
+ * Only the result of the lookup for the latest name is taken, and the
+ * issue tracker it resolved is bound when the changes are applied.
+ * The name already bound is not looked up again, and while the server is
+ * unreachable the name is accepted with a warning that it cannot be
+ * verified now; it is resolved when the repository first needs it.</p>
  *
  * @author Kaz Nishimura
  */
@@ -59,6 +75,35 @@ public final class BitbucketRepositoryController implements
      */
     private static final int TEXT_COLUMNS = 20;
 
+    /**
+     * Delay in milliseconds after the last edit before the repository name
+     * is looked up.
+     */
+    private static final int LOOKUP_DELAY = 500;
+
+    /**
+     * Warning shown if the repository name cannot be verified.
+     */
+    private static final String CANNOT_VERIFY =
+        "Cannot verify the repository now; it will be checked when online";
+
+    /**
+     * Maximum number of repository names suggested.
+     */
+    private static final int MAX_SUGGESTIONS = 20;
+
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(BitbucketRepositoryController.class.getName());
+
+    /**
+     * Request processor for lookups of repository names.
+     */
+    private static final RequestProcessor LOOKUP = new RequestProcessor(
+        BitbucketRepositoryController.class.getName(), 1, true);
+
     /**
      * Repository to apply changes.
      */
@@ -84,11 +129,44 @@ public final class BitbucketRepositoryController implements
      */
     private JTextField displayName = null;
 
+    /**
+     * Completion of the repository name.
+     */
+    private RepositoryNameCompletion completion = null;
+
     /**
      * Error message to show if values are not valid.
      */
     private String errorMessage = null;
 
+    /**
+     * Generation of the repository name, which is incremented on each
+     * edit so that the results of stale lookups are dropped.
+     * It is accessed only on the event dispatch thread.
+     */
+    private int generation = 0;
+
+    /**
+     * Task of the pending lookup, or {@code null} if none.
+     */
+    private RequestProcessor.Task lookupTask = null;
+
+    /**
+     * Repository name whose lookup has completed, or {@code null} if none.
+     */
+    private String checkedName = null;
+
+    /**
+     * Error message of the completed lookup, or {@code null} if the
+     * repository was found or could not be checked.
+     */
+    private String lookupError = null;
+
+    /**
+     * Warning of the completed lookup, or {@code null} if none.
+     */
+    private String lookupWarning = null;
+
     /**
      * Initializes the object.
      *
@@ -118,6 +196,9 @@ public final class BitbucketRepositoryController implements
         component = new JPanel(new GridBagLayout());
 
         repositoryName = new JTextField(TEXT_COLUMNS);
+        completion = new RepositoryNameCompletion(repositoryName,
+            (text) -> repositoryAdapter.findRepositoryNames(
+                text, MAX_SUGGESTIONS));
 
         displayName = new JTextField(TEXT_COLUMNS);
 
@@ -139,7 +220,25 @@ public final class BitbucketRepositoryController implements
             {
             }
         };
-        repositoryName.getDocument().addDocumentListener(textUpdate);
+        repositoryName.getDocument().addDocumentListener(
+            new DocumentListener() {
+                @Override
+                public void insertUpdate(final DocumentEvent event)
+                {
+                    repositoryNameChanged();
+                }
+
+                @Override
+                public void removeUpdate(final DocumentEvent event)
+                {
+                    repositoryNameChanged();
+                }
+
+                @Override
+                public void changedUpdate(final DocumentEvent event)
+                {
+                }
+            });
         displayName.getDocument().addDocumentListener(textUpdate);
 
         // Labels
@@ -187,6 +286,106 @@ public final class BitbucketRepositoryController implements
         component.setMinimumSize(component.getPreferredSize());
     }
 
+    /**
+     * Handles a change of the repository name.
+     * The repositories of its owner are indexed in the background, and the
+     * completion is updated when the index changes.
+     */
+    private void repositoryNameChanged()
+    {
+        String name = repositoryName.getText().trim();
+        repositoryAdapter.indexRepositoryNames(name,
+            () -> SwingUtilities.invokeLater(completion::update));
+        completion.update();
+        scheduleLookup();
+        fireStateChanged();
+    }
+
+    /**
+     * Schedules a lookup of the repository name, replacing the pending
+     * one.
+     * The name already bound is taken as checked, and so is any name while
+     * the server is known to be unreachable.
+     * This method must be called on the event dispatch thread.
+     */
+    private void scheduleLookup()
+    {
+        int currentGeneration = ++generation;
+        checkedName = null;
+        lookupError = null;
+        lookupWarning = null;
+        if (lookupTask != null) {
+            lookupTask.cancel();
+            lookupTask = null;
+        }
+
+        String name = repositoryName.getText().trim();
+        if (!REPOSITORY_NAME_PATTERN.matcher(name).matches()) {
+            return;
+        }
+        if (name.equals(repositoryAdapter.getFullName())) {
+            checkedName = name;
+        }
+        else if (!repositoryAdapter.isOnline()) {
+            checkedName = name;
+            lookupWarning = CANNOT_VERIFY;
+        }
+        else {
+            lookupTask = LOOKUP.post(
+                () -> lookup(name, currentGeneration), LOOKUP_DELAY);
+        }
+    }
+
+    /**
+     * Looks up a repository name with the server and takes the result on
+     * the event dispatch thread unless the name has been edited since.
+     *
+     * @param name a repository name
+     * @param lookupGeneration the generation of the name
+     */
+    private void lookup(final String name, final int lookupGeneration)
+    {
+        String error = null;
+        String warning = null;
+        try {
+            BitbucketIssueTracker issueTracker =
+                repositoryAdapter.resolveIssueTracker(name);
+            if (issueTracker == null) {
+                error = "Repository has no issue tracker";
+            }
+        }
+        catch (CancellationException exception) {
+            // The name has been edited since.
+            return;
+        }
+        catch (NotFoundException exception) {
+            error = "Repository not found";
+        }
+        catch (ProcessingException exception) {
+            warning = CANNOT_VERIFY;
+            LOGGER.log(Level.FINE, "Failed to reach the server", exception);
+        }
+        catch (RuntimeException exception) {
+            // The repository could not be checked; it is resolved again
+            // when it is bound.
+            warning = CANNOT_VERIFY;
+            LOGGER.log(Level.INFO, "Failed to look up a repository",
+                exception);
+        }
+
+        String result = error;
+        String resultWarning = warning;
+        SwingUtilities.invokeLater(() -> {
+            if (lookupGeneration == generation) {
+                lookupTask = null;
+                checkedName = name;
+                lookupError = result;
+                lookupWarning = resultWarning;
+                fireStateChanged();
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -236,7 +435,16 @@ public final class BitbucketRepositoryController implements
             return false;
         }
 
-        errorMessage = null;
+        if (!repositoryNameText.equals(checkedName)) {
+            errorMessage = "Checking repository...";
+            return false;
+        }
+        if (lookupError != null) {
+            errorMessage = lookupError;
+            return false;
+        }
+
+        errorMessage = lookupWarning;
         return true;
     }
 
@@ -265,8 +473,7 @@ public final class BitbucketRepositoryController implements
         repositoryAdapter.setFullName(repositoryNameText);
         repositoryAdapter.setDisplayName(displayNameText);
 
-        repositoryAdapter.getRepository()
-            .setTarget(repositoryAdapter.getIssueTracker());
+        repositoryAdapter.bindRepository();
 
         repositoryAdapter.resetController();
     }
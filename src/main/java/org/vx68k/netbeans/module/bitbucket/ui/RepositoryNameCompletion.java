@@ -0,0 +1,214 @@
+/*
+ * RepositoryNameCompletion.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket.ui;
+
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Function;
+import javax.swing.JList;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+
+/**
+ * Completion popup for a text field of repository names.
+ * <p>Suggestions are taken from a local function as the text changes, and
+ * one can be chosen with the arrow keys and Enter or with the mouse.
+ * The popup never takes the focus from the text field.
+ * All the methods must be called on the event dispatch thread.</p>
+ *
+ * @author Kaz Nishimura
+ */
+final class RepositoryNameCompletion
+{
+    /**
+     * Maximum number of visible rows in the popup.
+     */
+    private static final int VISIBLE_ROWS = 8;
+
+    /**
+     * Text field to complete.
+     */
+    private final JTextField field;
+
+    /**
+     * Function that returns the suggestions for a text.
+     */
+    private final Function<String, List<String>> suggester;
+
+    /**
+     * List of the suggestions.
+     */
+    private final JList<String> list;
+
+    /**
+     * Popup that shows the list.
+     */
+    private final JPopupMenu popup;
+
+    /**
+     * {@code true} while a suggestion is being put into the text field.
+     */
+    private boolean choosing = false;
+
+    /**
+     * Initializes the object and installs the completion to a text field.
+     *
+     * @param field a text field to complete
+     * @param suggester a function that returns the suggestions for a text
+     */
+    RepositoryNameCompletion(
+        final JTextField field,
+        final Function<String, List<String>> suggester)
+    {
+        this.field = field;
+        this.suggester = suggester;
+        this.list = new JList<>();
+        this.popup = new JPopupMenu();
+
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(final MouseEvent event)
+            {
+                int index = list.locationToIndex(event.getPoint());
+                if (index >= 0) {
+                    choose(list.getModel().getElementAt(index));
+                }
+            }
+        });
+
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(null);
+        scrollPane.setFocusable(false);
+        popup.add(scrollPane);
+        popup.setFocusable(false);
+
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(final KeyEvent event)
+            {
+                handleKey(event);
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(final FocusEvent event)
+            {
+                popup.setVisible(false);
+            }
+        });
+    }
+
+    /**
+     * Updates the suggestions for the current text and shows or hides the
+     * popup accordingly.
+     */
+    void update()
+    {
+        if (choosing) {
+            return;
+        }
+
+        String text = field.getText().trim();
+        List<String> suggestions = null;
+        if (!text.isEmpty() && field.isShowing() && field.hasFocus()) {
+            suggestions = suggester.apply(text);
+        }
+        if (suggestions == null || suggestions.isEmpty()
+            || suggestions.size() == 1 && suggestions.get(0).equals(text)) {
+            popup.setVisible(false);
+            return;
+        }
+
+        list.setListData(suggestions.toArray(new String[0]));
+        list.setVisibleRowCount(Math.min(suggestions.size(), VISIBLE_ROWS));
+        popup.pack();
+        if (!popup.isVisible()) {
+            popup.show(field, 0, field.getHeight());
+        }
+    }
+
+    /**
+     * Handles a key pressed in the text field while the popup is visible.
+     *
+     * @param event a key event
+     */
+    private void handleKey(final KeyEvent event)
+    {
+        if (!popup.isVisible()) {
+            return;
+        }
+
+        int size = list.getModel().getSize();
+        int index = list.getSelectedIndex();
+        switch (event.getKeyCode()) {
+        case KeyEvent.VK_DOWN:
+            index = Math.min(index + 1, size - 1);
+            list.setSelectedIndex(index);
+            list.ensureIndexIsVisible(index);
+            event.consume();
+            break;
+        case KeyEvent.VK_UP:
+            index = Math.max(index - 1, 0);
+            list.setSelectedIndex(index);
+            list.ensureIndexIsVisible(index);
+            event.consume();
+            break;
+        case KeyEvent.VK_ENTER:
+            if (index >= 0) {
+                choose(list.getSelectedValue());
+                event.consume();
+            }
+            break;
+        case KeyEvent.VK_ESCAPE:
+            popup.setVisible(false);
+            event.consume();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Puts a suggestion into the text field and hides the popup.
+     *
+     * @param suggestion a suggestion
+     */
+    private void choose(final String suggestion)
+    {
+        popup.setVisible(false);
+        choosing = true;
+        try {
+            field.setText(suggestion);
+        }
+        finally {
+            choosing = false;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * BitbucketIssueFinderTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BitbucketIssueFinder}.
+ * <p>The scanner is checked against the regular expression it replaced,
+ * {@code #(\d+)} with the number bounded to the nine digits the scanner
+ * accepts, on random texts made of characters that cannot start any other
+ * form of issue reference.</p>
+ *
+ * @author Kaz Nishimura
+ */
+public final class BitbucketIssueFinderTest
+{
+    /**
+     * Regular expression the scanner replaced, with the number bounded.
+     */
+    private static final Pattern ISSUE_PATTERN =
+        Pattern.compile("#(\\d{1,9})(?!\\d)");
+
+    /**
+     * Characters of random texts.
+     * No letter starts a keyword, and there is no slash.
+     */
+    private static final String ALPHABET = "##0123456789 \n\t.,:;-_()xyzXYZ";
+
+    /**
+     * Pieces of random texts that exercise every form of issue reference.
+     */
+    private static final String[] PIECES = {
+        "#", "#1", "#23", "/", ":", "://", " ", "  ", "     ", "\n", "x",
+        "fixes", "issue", "closing", "prefixes", "vx68k", "bitbucket",
+        "bitbucket.org", "https", "http", "issues/", "a-b", "_", ".",
+        "0123456789012345678901234567890123456789012345678901234567890123",
+    };
+
+    /**
+     * Number of random texts compared.
+     */
+    private static final int TEXT_COUNT = 200000;
+
+    /**
+     * Seed for random texts, fixed so that failures are reproducible.
+     */
+    private static final long SEED = 20180101L;
+
+    /**
+     * Returns the spans found by the regular expression.
+     *
+     * @param text a text
+     * @return the spans found
+     */
+    private static int[] regexSpans(final CharSequence text)
+    {
+        Matcher matcher = ISSUE_PATTERN.matcher(text);
+        List<Integer> spans = new ArrayList<>();
+        while (matcher.find()) {
+            spans.add(matcher.start());
+            spans.add(matcher.end());
+        }
+        return spans.stream().mapToInt((i) -> i).toArray();
+    }
+
+    /**
+     * Returns the issue identifier found by the regular expression.
+     *
+     * @param text a text
+     * @return the issue identifier if the whole text matches; {@code null}
+     * otherwise
+     */
+    private static String regexIssueId(final String text)
+    {
+        Matcher matcher = ISSUE_PATTERN.matcher(text);
+        String value = null;
+        if (matcher.matches()) {
+            value = matcher.group(1);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the spans found by attempting a match at every position a
+     * scan of the whole text reaches.
+     *
+     * @param text a text
+     * @return the spans found
+     */
+    private static int[] fullScanSpans(final CharSequence text)
+    {
+        List<Integer> spans = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int end = IssueReferenceScanner.match(text, i);
+            if (end >= 0) {
+                spans.add(i);
+                spans.add(end);
+                i = end;
+            }
+            else {
+                i = IssueReferenceScanner.skip(text, i);
+            }
+        }
+        return spans.stream().mapToInt((span) -> span).toArray();
+    }
+
+    /**
+     * Returns a random text of pieces.
+     *
+     * @param random a random number generator
+     * @param count the number of pieces
+     * @return a random text
+     */
+    private static String randomPieces(final Random random, final int count)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a random text.
+     *
+     * @param random a random number generator
+     * @param length the length of the text
+     * @return a random text
+     */
+    private static String randomText(final Random random, final int length)
+    {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Tests that the spans of short random texts equal those of the
+     * regular expression.
+     */
+    @Test
+    public void testSpansEquivalentToRegex()
+    {
+        BitbucketIssueFinder finder = new BitbucketIssueFinder(null);
+        Random random = new Random(SEED);
+        for (int i = 0; i < TEXT_COUNT; i++) {
+            String text = randomText(random, random.nextInt(40));
+            assertArrayEquals(text, regexSpans(text),
+                finder.getIssueSpans(text));
+        }
+    }
+
+    /**
+     * Tests that the spans found from trigger characters equal those of a
+     * scan of the whole text, on random strings and mutable texts with
+     * every form of issue reference.
+     */
+    @Test
+    public void testSpansEquivalentToFullScan()
+    {
+        BitbucketIssueFinder finder = new BitbucketIssueFinder(null);
+        Random random = new Random(SEED);
+        for (int i = 0; i < TEXT_COUNT; i++) {
+            String text = randomPieces(random, random.nextInt(24));
+            int[] expected = fullScanSpans(text);
+            assertArrayEquals(text, expected, finder.getIssueSpans(text));
+            assertArrayEquals(text, expected,
+                finder.getIssueSpans(new StringBuilder(text)));
+        }
+    }
+
+    /**
+     * Tests that the issue identifiers of short random texts equal those
+     * of the regular expression.
+     */
+    @Test
+    public void testIssueIdEquivalentToRegex()
+    {
+        BitbucketIssueFinder finder = new BitbucketIssueFinder(null);
+        Random random = new Random(SEED);
+        for (int i = 0; i < TEXT_COUNT; i++) {
+            String text = "#" + randomText(random, random.nextInt(6));
+            assertEquals(text, regexIssueId(text), finder.getIssueId(text));
+        }
+    }
+
+    /**
+     * Tests that the spans of large random texts, which are scanned through
+     * the span cache, equal those of the regular expression.
+     */
+    @Test
+    public void testLargeSpansEquivalentToRegex()
+    {
+        BitbucketIssueFinder finder = new BitbucketIssueFinder(null);
+        Random random = new Random(SEED);
+        for (int i = 0; i < 20; i++) {
+            String text = randomText(random,
+                IssueSpanCache.MIN_LENGTH + random.nextInt(4096));
+            assertArrayEquals(regexSpans(text), finder.getIssueSpans(text));
+        }
+    }
+}
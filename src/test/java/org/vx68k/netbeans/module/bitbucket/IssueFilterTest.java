@@ -0,0 +1,150 @@
+/*
+ * IssueFilterTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IssueFilter}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class IssueFilterTest
+{
+    /**
+     * Returns a record with the given properties.
+     *
+     * @param id an identifier
+     * @param title a title
+     * @param state a state
+     * @param updatedOn the time of the last update, or {@code null}
+     * @return a record
+     */
+    private static IssueRecord record(
+        final int id, final String title, final String state,
+        final String updatedOn)
+    {
+        return new IssueRecord(
+            id, title, state, "bug", "major", null, updatedOn);
+    }
+
+    /**
+     * Tests comparisons of ranked fields.
+     */
+    @Test
+    public void testRankedComparison()
+    {
+        IssueFilter filter = IssueFilter.compile("state <= \"open\"");
+        assertEquals(Boolean.TRUE,
+            filter.evaluate(record(1, "a", "new", null)));
+        assertEquals(Boolean.TRUE,
+            filter.evaluate(record(2, "a", "open", null)));
+        assertEquals(Boolean.FALSE,
+            filter.evaluate(record(3, "a", "resolved", null)));
+    }
+
+    /**
+     * Tests text comparisons and logical operators.
+     */
+    @Test
+    public void testTextAndLogic()
+    {
+        IssueFilter filter = IssueFilter.compile(
+            "(title ~ \"crash\" OR id = 7) AND state != \"closed\"");
+        assertEquals(Boolean.TRUE,
+            filter.evaluate(record(1, "Editor CRASHES", "open", null)));
+        assertEquals(Boolean.TRUE,
+            filter.evaluate(record(7, "Typo", "new", null)));
+        assertEquals(Boolean.FALSE,
+            filter.evaluate(record(1, "Editor crashes", "closed", null)));
+        assertEquals(Boolean.FALSE,
+            filter.evaluate(record(2, "Typo", "open", null)));
+    }
+
+    /**
+     * Tests that a comparison on an unknown value is unknown unless the
+     * rest of the expression decides the value.
+     */
+    @Test
+    public void testUnknownValues()
+    {
+        IssueFilter filter = IssueFilter.compile(
+            "updated_on > 2018-01-01 OR id = 1");
+        assertNull(filter.evaluate(record(2, "a", "open", null)));
+        assertEquals(Boolean.TRUE,
+            filter.evaluate(record(1, "a", "open", null)));
+    }
+
+    /**
+     * Tests comparisons of update times with dates and datetimes.
+     */
+    @Test
+    public void testUpdatedOn()
+    {
+        IssueRecord record =
+            record(1, "a", "open", "2018-03-01T12:00:00.000250+00:00");
+        assertEquals(Boolean.TRUE, IssueFilter.compile(
+            "updated_on > 2018-03-01").evaluate(record));
+        assertEquals(Boolean.FALSE, IssueFilter.compile(
+            "updated_on > 2018-03-02").evaluate(record));
+        assertEquals(Boolean.TRUE, IssueFilter.compile(
+            "updated_on > 2018-03-01T21:00:00.000249+09:00")
+            .evaluate(record));
+        assertEquals(Boolean.FALSE, IssueFilter.compile(
+            "updated_on > 2018-03-01T12:00:00.000250Z").evaluate(record));
+    }
+
+    /**
+     * Tests that an update time is kept parsed through an issue table.
+     */
+    @Test
+    public void testUpdatedOnFromTable()
+    {
+        IssueTable table = new IssueTable();
+        table.put(record(1, "a", "open", "2018-03-01T12:00:00+00:00"));
+        IssueRecord record = table.get(1);
+        assertEquals(IssueRecord.parseTime("2018-03-01T12:00:00Z"),
+            record.getUpdatedTime());
+        assertEquals(Boolean.TRUE, IssueFilter.compile(
+            "updated_on >= 2018-03-01T12:00:00+00:00").evaluate(record));
+    }
+
+    /**
+     * Tests that unsupported expressions are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedField()
+    {
+        IssueFilter.compile("assignee.username = \"kaz\"");
+    }
+
+    /**
+     * Tests that unbalanced parentheses are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingParenthesis()
+    {
+        IssueFilter.compile("(id = 1");
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * IssueFinderBenchmark.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the issue finder against the regular expression it
+ * replaced.
+ * <p>The regular expression recognizes only the {@code #123} form, while
+ * the issue finder recognizes all the forms of
+ * {@link IssueReferenceScanner}.</p>
+ * <p>It is not run by the tests.
+ * To run it after {@code mvn test-compile}, run
+ * {@code org.openjdk.jmh.Main IssueFinderBenchmark} with the test classpath.
+ * Texts below {@link IssueSpanCache#MIN_LENGTH} are scanned directly, and
+ * larger ones go through the span cache, which returns cached spans for an
+ * unchanged text.</p>
+ *
+ * @author Kaz Nishimura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IssueFinderBenchmark
+{
+    /**
+     * Regular expression the scanner replaced.
+     */
+    private static final Pattern ISSUE_PATTERN = Pattern.compile("#(\\d+)");
+
+    /**
+     * Words of the benchmark texts.
+     */
+    private static final String[] WORDS = {
+        "the", "editor", "fixes", "#12", "issue", "#345", "and", "a",
+        "vx68k/bitbucket#6", "line.", "\n",
+    };
+
+    /**
+     * Length of the benchmark text.
+     */
+    @Param({"1024", "12000"})
+    private int length;
+
+    /**
+     * Benchmark text.
+     */
+    private String text;
+
+    /**
+     * Issue finder.
+     */
+    private BitbucketIssueFinder finder;
+
+    /**
+     * Makes the benchmark text.
+     */
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length + 32);
+        while (builder.length() < length) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        builder.setLength(length);
+        text = builder.toString();
+        finder = new BitbucketIssueFinder(null);
+    }
+
+    /**
+     * Finds issue spans with the issue finder.
+     *
+     * @return the spans found
+     */
+    @Benchmark
+    public int[] scanner()
+    {
+        return finder.getIssueSpans(text);
+    }
+
+    /**
+     * Finds issue spans with the regular expression as the issue finder
+     * did before.
+     *
+     * @return the spans found
+     */
+    @Benchmark
+    public int[] regex()
+    {
+        Matcher matcher = ISSUE_PATTERN.matcher(text);
+        List<Integer> spans = new ArrayList<>();
+        while (matcher.find()) {
+            spans.add(matcher.start());
+            spans.add(matcher.end());
+        }
+        return spans.stream().mapToInt((i) -> i).toArray();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * IssueIndexTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IssueIndex}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class IssueIndexTest
+{
+    /**
+     * Returns a record with a title and a content.
+     *
+     * @param id an identifier
+     * @param title a title
+     * @param content a content
+     * @return a record
+     */
+    private static IssueRecord record(
+        final int id, final String title, final String content)
+    {
+        return new IssueRecord(id, title, "open", "bug", "major", content,
+            null);
+    }
+
+    /**
+     * Tests splitting texts into terms.
+     */
+    @Test
+    public void testTokenize()
+    {
+        assertEquals(Arrays.asList("crash", "on", "start", "2"),
+            IssueIndex.tokenize("Crash on START-2!"));
+        assertEquals(Arrays.asList("caf\u00e9", "x1"),
+            IssueIndex.tokenize("  Caf\u00c9, x1."));
+        assertEquals(Collections.emptyList(), IssueIndex.tokenize(" -- "));
+        assertEquals(Collections.emptyList(), IssueIndex.tokenize(null));
+    }
+
+    /**
+     * Tests that all the query terms must match, by prefix unless they are
+     * too short.
+     */
+    @Test
+    public void testSearch()
+    {
+        IssueIndex index = new IssueIndex();
+        index.put(record(1, "Crash on start", "Steps to reproduce"));
+        index.put(record(2, "Slow start", null));
+        index.put(record(3, "Typo", "a crash report"));
+
+        assertArrayEquals(new int[] {2, 1}, index.search("START", 10));
+        assertArrayEquals(new int[] {1}, index.search("crash start", 10));
+        assertArrayEquals(new int[] {1, 3}, index.search("cra", 10));
+        assertArrayEquals(new int[] {3}, index.search("a", 10));
+        assertArrayEquals(new int[0], index.search("crash slow", 10));
+        assertArrayEquals(new int[0], index.search("-", 10));
+        assertArrayEquals(new int[] {2}, index.search("start", 1));
+    }
+
+    /**
+     * Tests that title matches rank above content matches and exact matches
+     * above prefix matches.
+     */
+    @Test
+    public void testRanking()
+    {
+        IssueIndex index = new IssueIndex();
+        index.put(record(1, "Other", "editor"));
+        index.put(record(2, "Editor", null));
+        index.put(record(3, "Edit", null));
+        index.put(record(4, "Unrelated", null));
+
+        assertArrayEquals(new int[] {2, 1}, index.search("editor", 10));
+        assertArrayEquals(new int[] {3, 2, 1}, index.search("edit", 10));
+    }
+
+    /**
+     * Tests that replacing and removing issues update the index.
+     */
+    @Test
+    public void testUpdates()
+    {
+        IssueIndex index = new IssueIndex();
+        index.put(record(1, "Crash", null));
+        index.put(record(2, "Crash again", null));
+        index.put(record(1, "Hang", "after a crash"));
+
+        assertArrayEquals(new int[] {2, 1}, index.search("crash", 10));
+        assertArrayEquals(new int[] {1}, index.search("hang", 10));
+
+        index.remove(2);
+        index.remove(3);
+        assertArrayEquals(new int[] {1}, index.search("crash", 10));
+        assertArrayEquals(new int[0], index.search("again", 10));
+
+        index.clear();
+        assertArrayEquals(new int[0], index.search("hang", 10));
+        index.put(record(5, "Hang", null));
+        assertArrayEquals(new int[] {5}, index.search("hang", 10));
+    }
+}
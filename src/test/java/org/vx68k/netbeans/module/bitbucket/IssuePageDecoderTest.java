@@ -0,0 +1,124 @@
+/*
+ * IssuePageDecoderTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.json.JsonException;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IssuePageDecoder}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class IssuePageDecoderTest
+{
+    /**
+     * Issue object with fields that are not needed for records.
+     */
+    private static final String ISSUE = "{"
+        + "\"priority\": \"major\", \"kind\": \"bug\","
+        + "\"repository\": {\"links\": {\"html\": {\"href\": \"x\"}},"
+        + " \"name\": \"r\"},"
+        + "\"title\": \"Crash \\u00e9\", \"reporter\": null,"
+        + "\"content\": {\"raw\": \"Steps\", \"markup\": \"markdown\","
+        + " \"html\": \"<p>Steps</p>\"},"
+        + "\"watches\": [1, [2, {}]], \"votes\": 0,"
+        + "\"state\": \"open\", \"id\": 12,"
+        + "\"updated_on\": \"2018-03-01T12:00:00.000250+00:00\""
+        + "}";
+
+    /**
+     * Returns a stream of a string.
+     *
+     * @param text a string
+     * @return a stream of the string in UTF-8
+     */
+    private static InputStream stream(final String text)
+    {
+        return new ByteArrayInputStream(
+            text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests decoding a single issue, skipping the fields not needed.
+     */
+    @Test
+    public void testDecodeIssue()
+    {
+        assertEquals(new IssueRecord(12, "Crash \u00e9", "open", "bug",
+            "major", "Steps", "2018-03-01T12:00:00.000250+00:00"),
+            IssuePageDecoder.decodeIssue(stream(ISSUE)));
+    }
+
+    /**
+     * Tests decoding a page.
+     */
+    @Test
+    public void testDecodePage()
+    {
+        IssueSummaryClient.Page page = IssuePageDecoder.decode(stream(
+            "{\"pagelen\": 2, \"values\": [" + ISSUE + ", {\"id\": 13},"
+            + " {\"title\": \"no id\"}, 7],"
+            + " \"page\": 1, \"next\": \"https://example.org/?page=2\"}"));
+        assertEquals(Arrays.asList(
+            IssuePageDecoder.decodeIssue(stream(ISSUE)),
+            new IssueRecord(13, null, null, null, null, null, null)),
+            page.getRecords());
+        assertEquals("https://example.org/?page=2", page.getNext());
+    }
+
+    /**
+     * Tests decoding the last page, which has no next page.
+     */
+    @Test
+    public void testDecodeLastPage()
+    {
+        IssueSummaryClient.Page page = IssuePageDecoder.decode(stream(
+            "{\"values\": [], \"next\": null}"));
+        assertEquals(0, page.getRecords().size());
+        assertNull(page.getNext());
+    }
+
+    /**
+     * Tests that a page that is not an object is rejected.
+     */
+    @Test(expected = JsonException.class)
+    public void testNotPage()
+    {
+        IssuePageDecoder.decode(stream("[]"));
+    }
+
+    /**
+     * Tests that an issue without identifier is rejected.
+     */
+    @Test(expected = JsonException.class)
+    public void testIssueWithoutId()
+    {
+        IssuePageDecoder.decodeIssue(stream("{\"title\": \"a\"}"));
+    }
+}
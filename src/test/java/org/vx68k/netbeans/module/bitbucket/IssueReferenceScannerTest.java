@@ -0,0 +1,204 @@
+/*
+ * IssueReferenceScannerTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IssueReferenceScanner}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class IssueReferenceScannerTest
+{
+    /**
+     * Returns the issue references found in a text.
+     *
+     * @param text a text
+     * @return the issue references found, in order
+     */
+    private static List<String> scan(final String text)
+    {
+        List<String> references = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            int end = IssueReferenceScanner.match(text, i);
+            if (end >= 0) {
+                references.add(text.substring(i, end));
+                i = end;
+            }
+            else {
+                i = IssueReferenceScanner.skip(text, i);
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Returns the parts of an issue reference that spans a whole text.
+     *
+     * @param text a text
+     * @return the parts as {@code owner/repo#123} or {@code 123}, or
+     * {@code null} if the whole text does not match
+     */
+    private static String parts(final String text)
+    {
+        int[] groups = new int[IssueReferenceScanner.GROUP_COUNT];
+        if (IssueReferenceScanner.match(text, 0, groups) != text.length()) {
+            return null;
+        }
+
+        String number = text.substring(
+            groups[IssueReferenceScanner.NUMBER_START],
+            groups[IssueReferenceScanner.NUMBER_END]);
+        if (groups[IssueReferenceScanner.OWNER_START] < 0) {
+            return number;
+        }
+        return text.substring(
+            groups[IssueReferenceScanner.OWNER_START],
+            groups[IssueReferenceScanner.OWNER_END])
+            + "/" + text.substring(
+                groups[IssueReferenceScanner.NAME_START],
+                groups[IssueReferenceScanner.NAME_END])
+            + "#" + number;
+    }
+
+    /**
+     * Tests the {@code #123} form.
+     */
+    @Test
+    public void testNumber()
+    {
+        assertEquals("123", parts("#123"));
+        assertEquals(Arrays.asList("#1", "#23"),
+            scan("see #1, #23 and #."));
+        assertEquals(Arrays.asList("#4"), scan("##4"));
+    }
+
+    /**
+     * Tests the {@code owner/repo#123} form.
+     */
+    @Test
+    public void testQualified()
+    {
+        assertEquals("vx68k/bitbucket#6", parts("vx68k/bitbucket#6"));
+        assertEquals("a-b/c_d.e#7", parts("a-b/c_d.e#7"));
+        assertEquals(Arrays.asList("vx68k/bitbucket#6"),
+            scan("as in vx68k/bitbucket#6."));
+        assertEquals(Arrays.asList("#6"), scan("vx68k/#6"));
+        assertEquals(Collections.emptyList(), scan("vx68k/bitbucket#"));
+    }
+
+    /**
+     * Tests keyword references and their inflections.
+     */
+    @Test
+    public void testKeywords()
+    {
+        for (String keyword : Arrays.asList("issue", "close", "closes",
+            "closed", "closing", "fix", "fixes", "fixed", "fixing",
+            "resolve", "resolves", "resolved", "resolving", "Fixes",
+            "CLOSES")) {
+            String text = keyword + " #12";
+            assertEquals(text, "12", parts(text));
+        }
+        assertEquals("3", parts("fixes \t #3"));
+        assertNull(parts("fixes     #3"));
+        assertNull(parts("fixes#3"));
+        assertNull(parts("fixing3 #3"));
+    }
+
+    /**
+     * Tests that a keyword inside another word starts no reference.
+     */
+    @Test
+    public void testKeywordInWord()
+    {
+        assertNull(parts("prefixes #1"));
+        assertEquals(Arrays.asList("#1"), scan("prefixes #1"));
+        assertEquals(Arrays.asList("fixes #2"), scan("it fixes #2"));
+    }
+
+    /**
+     * Tests issue URLs.
+     */
+    @Test
+    public void testUrls()
+    {
+        assertEquals("vx68k/bitbucket#7",
+            parts("https://bitbucket.org/vx68k/bitbucket/issues/7"));
+        assertEquals("vx68k/bitbucket#7",
+            parts("http://bitbucket.org/vx68k/bitbucket/issues/7"));
+        assertEquals("vx68k/bitbucket#7",
+            parts("bitbucket.org/vx68k/bitbucket/issues/7"));
+        assertEquals(
+            Arrays.asList("https://bitbucket.org/vx68k/bitbucket/issues/7"),
+            scan("<https://bitbucket.org/vx68k/bitbucket/issues/7/title>"));
+        assertNull(parts("ftp://bitbucket.org/vx68k/bitbucket/issues/7"));
+        assertNull(parts("https://example.org/vx68k/bitbucket/issues/7"));
+        assertNull(parts("https://bitbucket.org/vx68k/bitbucket/pulls/7"));
+    }
+
+    /**
+     * Tests that too long names are rejected.
+     */
+    @Test
+    public void testLongNames()
+    {
+        char[] chars = new char[64];
+        Arrays.fill(chars, 'a');
+        String name = new String(chars);
+        assertEquals(name + "/r#1", parts(name + "/r#1"));
+        assertNull(parts(name + "a/r#1"));
+        assertNull(parts("o/" + name + "a#1"));
+    }
+
+    /**
+     * Tests that issue numbers too long for an {@code int} are rejected.
+     */
+    @Test
+    public void testLongNumbers()
+    {
+        assertEquals("123456789", parts("#123456789"));
+        assertNull(parts("#1234567890"));
+        assertNull(parts("o/r#99999999999999999999"));
+        assertEquals(Collections.emptyList(), scan("fixes #12345678901"));
+    }
+
+    /**
+     * Tests that skipping after a failed match resumes at the end of the
+     * run of name characters.
+     */
+    @Test
+    public void testSkip()
+    {
+        assertEquals(5, IssueReferenceScanner.skip("hello world", 0));
+        assertEquals(6, IssueReferenceScanner.skip("hello world", 5));
+        assertEquals(1, IssueReferenceScanner.skip("#x", 0));
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * IssueSpanCacheTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IssueSpanCache}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class IssueSpanCacheTest
+{
+    /**
+     * Words of random texts.
+     */
+    private static final String[] WORDS = {
+        "the", "fixes", "#12", "issue #3", "and", "vx68k/bitbucket#6",
+        "https://bitbucket.org/vx68k/bitbucket/issues/7", "closes", "\n",
+    };
+
+    /**
+     * Seed for random texts, fixed so that failures are reproducible.
+     */
+    private static final long SEED = 20180101L;
+
+    /**
+     * Number of match attempts made.
+     */
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /**
+     * Cache under test, which counts match attempts.
+     */
+    private final IssueSpanCache cache = new IssueSpanCache(
+        (text, start) -> {
+            attempts.incrementAndGet();
+            return IssueReferenceScanner.match(text, start);
+        }, IssueReferenceScanner.LOOKAHEAD);
+
+    /**
+     * Returns a random text of words.
+     *
+     * @param random a random number generator
+     * @param length the minimum length of the text
+     * @return a random text
+     */
+    private static String randomText(final Random random, final int length)
+    {
+        StringBuilder text = new StringBuilder(length + 64);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the spans of a text scanned in full.
+     *
+     * @param text a text
+     * @return the spans of the text
+     */
+    private static int[] fullScan(final CharSequence text)
+    {
+        return new IssueSpanCache(IssueReferenceScanner::match,
+            IssueReferenceScanner.LOOKAHEAD).getSpans(text);
+    }
+
+    /**
+     * Applies a random edit to a text.
+     *
+     * @param random a random number generator
+     * @param text a text
+     */
+    private static void edit(final Random random, final StringBuilder text)
+    {
+        int start = random.nextInt(text.length());
+        int end = Math.min(start + random.nextInt(40), text.length());
+        String insert = "";
+        if (random.nextBoolean()) {
+            insert = WORDS[random.nextInt(WORDS.length)];
+        }
+        text.replace(start, end, insert);
+    }
+
+    /**
+     * Tests that the spans of edited versions of a text equal those of a
+     * full scan.
+     */
+    @Test
+    public void testEditedVersions()
+    {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(
+            randomText(random, IssueSpanCache.MIN_LENGTH));
+        for (int i = 0; i < 500; i++) {
+            edit(random, text);
+            String version = text.toString();
+            assertArrayEquals(fullScan(version), cache.getSpans(version));
+        }
+    }
+
+    /**
+     * Tests that the spans of a mutable text edited in place equal those of
+     * a full scan.
+     */
+    @Test
+    public void testEditedInPlace()
+    {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(
+            randomText(random, IssueSpanCache.MIN_LENGTH));
+        for (int i = 0; i < 500; i++) {
+            edit(random, text);
+            assertArrayEquals(fullScan(text), cache.getSpans(text));
+        }
+    }
+
+    /**
+     * Tests that an unchanged text is not rescanned, whether it is the same
+     * object, an equal string, or a mutable text.
+     */
+    @Test
+    public void testUnchanged()
+    {
+        String text = randomText(new Random(SEED), IssueSpanCache.MIN_LENGTH);
+        int[] spans = cache.getSpans(text);
+        assertTrue(attempts.get() > 0);
+
+        attempts.set(0);
+        assertArrayEquals(spans, cache.getSpans(text));
+        assertArrayEquals(spans, cache.getSpans(new String(text)));
+        assertEquals(0, attempts.get());
+
+        StringBuilder mutable = new StringBuilder(text);
+        assertArrayEquals(spans, cache.getSpans(mutable));
+        attempts.set(0);
+        assertArrayEquals(spans, cache.getSpans(mutable));
+        assertEquals(0, attempts.get());
+    }
+
+    /**
+     * Tests that texts sharing only a header are not taken for each other.
+     */
+    @Test
+    public void testSharedHeader()
+    {
+        Random random = new Random(SEED);
+        String header = randomText(random, 1024);
+        String a = header + randomText(random, IssueSpanCache.MIN_LENGTH);
+        String b = header + randomText(random, IssueSpanCache.MIN_LENGTH);
+        assertArrayEquals(fullScan(a), cache.getSpans(a));
+        assertArrayEquals(fullScan(b), cache.getSpans(b));
+
+        attempts.set(0);
+        assertArrayEquals(fullScan(a), cache.getSpans(new String(a)));
+        assertArrayEquals(fullScan(b), cache.getSpans(new String(b)));
+        assertEquals(0, attempts.get());
+    }
+}
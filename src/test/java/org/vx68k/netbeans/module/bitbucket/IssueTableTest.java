@@ -0,0 +1,142 @@
+/*
+ * IssueTableTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IssueTable}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class IssueTableTest
+{
+    /**
+     * Seed for random records, fixed so that failures are reproducible.
+     */
+    private static final long SEED = 20180101L;
+
+    /**
+     * Returns a record with the given properties.
+     *
+     * @param id an identifier
+     * @param title a title
+     * @param state a state
+     * @return a record
+     */
+    private static IssueRecord record(
+        final int id, final String title, final String state)
+    {
+        return new IssueRecord(id, title, state, "bug", "major", "text",
+            "2018-03-01T12:00:00+00:00");
+    }
+
+    /**
+     * Tests that stored records are returned equal.
+     */
+    @Test
+    public void testPutAndGet()
+    {
+        IssueTable table = new IssueTable();
+        IssueRecord record = record(1, "a", "open");
+        assertTrue(table.put(record));
+        assertEquals(1, table.size());
+        assertEquals(record, table.get(1));
+        assertEquals(record.getUpdatedTime(), table.get(1).getUpdatedTime());
+        assertNull(table.get(2));
+
+        IssueRecord empty =
+            new IssueRecord(2, null, null, null, null, null, null);
+        assertTrue(table.put(empty));
+        assertEquals(empty, table.get(2));
+    }
+
+    /**
+     * Tests that storing an equal record changes nothing and keeps the
+     * strings already stored.
+     */
+    @Test
+    public void testUnchanged()
+    {
+        IssueTable table = new IssueTable();
+        IssueRecord record = record(1, "title", "open");
+        table.put(record);
+        assertFalse(table.put(record(1, new String("title"), "open")));
+        assertSame(record.getTitle(), table.get(1).getTitle());
+
+        assertTrue(table.put(record(1, new String("title"), "closed")));
+        assertSame(record.getTitle(), table.get(1).getTitle());
+        assertEquals("closed", table.get(1).getState());
+        assertEquals(1, table.size());
+    }
+
+    /**
+     * Tests many records against a map, which exercises growing and
+     * rehashing the table and values beyond the dictionary of a column.
+     */
+    @Test
+    public void testManyRecords()
+    {
+        IssueTable table = new IssueTable();
+        Map<Integer, IssueRecord> expected = new HashMap<>();
+        Random random = new Random(SEED);
+        for (int i = 0; i < 10000; i++) {
+            int id = random.nextInt(5000) - 1000;
+            IssueRecord record = record(id, "title " + random.nextInt(100),
+                "state " + random.nextInt(300));
+            assertEquals(!record.equals(expected.get(id)),
+                table.put(record));
+            expected.put(id, record);
+        }
+
+        assertEquals(expected.size(), table.size());
+        expected.forEach((id, record) -> {
+            assertEquals(record, table.get(id));
+        });
+        assertEquals(expected.size(), table.toList().size());
+    }
+
+    /**
+     * Tests that clearing removes all the records.
+     */
+    @Test
+    public void testClear()
+    {
+        IssueTable table = new IssueTable();
+        for (int id = 1; id <= 100; id++) {
+            table.put(record(id, "a", "open"));
+        }
+        table.clear();
+        assertEquals(0, table.size());
+        assertNull(table.get(1));
+        assertTrue(table.put(record(1, "b", "new")));
+        assertEquals("new", table.get(1).getState());
+    }
+}
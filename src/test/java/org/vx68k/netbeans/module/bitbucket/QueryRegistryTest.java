@@ -0,0 +1,115 @@
+/*
+ * QueryRegistryTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link QueryRegistry}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class QueryRegistryTest
+{
+    /**
+     * Identifier of the repository, unique to each test.
+     */
+    private final String repositoryId = UUID.randomUUID().toString();
+
+    /**
+     * Deletes the queries persisted by a test.
+     */
+    @After
+    public void tearDown()
+    {
+        newRegistry(repositoryId).delete();
+    }
+
+    /**
+     * Returns a new registry.
+     *
+     * @param id the identifier of the repository, or {@code null}
+     * @return a new registry
+     */
+    private static QueryRegistry newRegistry(final String id)
+    {
+        return new QueryRegistry(new BitbucketIssueTrackerProxy(), id, () -> {
+        });
+    }
+
+    /**
+     * Returns the display names of the queries of a registry.
+     *
+     * @param registry a registry
+     * @return the display names of the queries
+     */
+    private static List<String> names(final QueryRegistry registry)
+    {
+        return registry.getQueries().stream()
+            .map(BitbucketQuery::getDisplayName)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Tests that queries saved without a name are given unique ones.
+     */
+    @Test
+    public void testUnnamedQueries()
+    {
+        QueryRegistry registry = newRegistry(repositoryId);
+        registry.save(registry.createQuery());
+        BitbucketQuery named = registry.createQuery();
+        named.setDisplayName("Query 2");
+        registry.save(named);
+        registry.save(registry.createQuery());
+
+        List<String> expected = names(registry);
+        assertEquals(5, expected.size());
+        assertEquals("Query 1", expected.get(2));
+        assertEquals("Query 3", expected.get(4));
+        assertEquals(expected, names(newRegistry(repositoryId)));
+    }
+
+    /**
+     * Tests that queries saved before the registry is bound are persisted
+     * when it is.
+     */
+    @Test
+    public void testBind()
+    {
+        QueryRegistry registry = newRegistry(null);
+        BitbucketQuery query = registry.createQuery();
+        query.setDisplayName("Mine");
+        query.setFilter("kind = \"bug\"");
+        registry.save(query);
+
+        registry.bind(repositoryId);
+        List<String> expected = names(registry);
+        assertEquals("Mine", expected.get(2));
+        assertEquals(expected, names(newRegistry(repositoryId)));
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * RequestSchedulerTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RequestScheduler}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class RequestSchedulerTest
+{
+    /**
+     * Timeout in seconds for each wait.
+     */
+    private static final long TIMEOUT = 10;
+
+    /**
+     * Executor for concurrent requests.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Shuts down the executor.
+     */
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the milliseconds elapsed since a time.
+     *
+     * @param start a time in nanoseconds
+     * @return the milliseconds elapsed
+     */
+    private static long elapsed(final long start)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Tests that requests in a burst are not delayed.
+     */
+    @Test
+    public void testBurst()
+    {
+        RequestScheduler scheduler = new RequestScheduler(1, 3);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("ok", scheduler.execute(
+                RequestScheduler.Lane.INTERACTIVE, () -> "ok"));
+        }
+        assertTrue(elapsed(start) < 1000);
+    }
+
+    /**
+     * Tests that requests beyond a burst wait for tokens.
+     */
+    @Test
+    public void testRateLimited()
+    {
+        RequestScheduler scheduler = new RequestScheduler(3600 * 20, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            scheduler.execute(RequestScheduler.Lane.INTERACTIVE, () -> "ok");
+        }
+        assertTrue(elapsed(start) >= 90);
+    }
+
+    /**
+     * Tests that background requests leave a reserve for interactive ones
+     * and that a waiting request is cancelled when interrupted.
+     *
+     * @throws Exception if the test failed
+     */
+    @Test
+    public void testInteractiveReserve() throws Exception
+    {
+        RequestScheduler scheduler = new RequestScheduler(1, 3);
+        scheduler.execute(RequestScheduler.Lane.BACKGROUND, () -> "ok");
+
+        Future<String> background = executor.submit(() -> scheduler.execute(
+            RequestScheduler.Lane.BACKGROUND, () -> "background"));
+        Thread.sleep(100);
+        assertFalse(background.isDone());
+        assertEquals("interactive", scheduler.execute(
+            RequestScheduler.Lane.INTERACTIVE, () -> "interactive"));
+
+        background.cancel(true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that a request waiting for tokens is cancelled when the thread
+     * is interrupted.
+     */
+    @Test
+    public void testInterrupted()
+    {
+        RequestScheduler scheduler = new RequestScheduler(1, 1);
+        scheduler.execute(RequestScheduler.Lane.INTERACTIVE, () -> "ok");
+        Thread.currentThread().interrupt();
+        try {
+            scheduler.execute(RequestScheduler.Lane.INTERACTIVE, () -> "ok");
+            fail("The request was not cancelled");
+        }
+        catch (CancellationException exception) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    /**
+     * Tests that a throttled request is retried after the time given by
+     * the server.
+     */
+    @Test
+    public void testThrottledRetried()
+    {
+        RequestScheduler scheduler = new RequestScheduler(3600 * 100, 1);
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.nanoTime();
+        String value = scheduler.execute(RequestScheduler.Lane.INTERACTIVE,
+            () -> {
+                if (calls.incrementAndGet() == 1) {
+                    throw new WebApplicationException(Response.status(429)
+                        .header(HttpHeaders.RETRY_AFTER, "1").build());
+                }
+                return "ok";
+            });
+        assertEquals("ok", value);
+        assertEquals(2, calls.get());
+        assertTrue(elapsed(start) >= 900);
+    }
+
+    /**
+     * Tests that an interactive request fails fast when the server asks
+     * for a long hold, which still holds back background requests.
+     *
+     * @throws Exception if the test failed
+     */
+    @Test
+    public void testInteractiveHoldBounded() throws Exception
+    {
+        RequestScheduler scheduler = new RequestScheduler(3600 * 100, 3);
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.nanoTime();
+        try {
+            scheduler.execute(RequestScheduler.Lane.INTERACTIVE, () -> {
+                calls.incrementAndGet();
+                throw new WebApplicationException(Response.status(429)
+                    .header(HttpHeaders.RETRY_AFTER, "60").build());
+            });
+            fail("The throttled request was retried");
+        }
+        catch (WebApplicationException exception) {
+            assertEquals(429, exception.getResponse().getStatus());
+        }
+        assertEquals(1, calls.get());
+
+        try {
+            scheduler.execute(RequestScheduler.Lane.INTERACTIVE, () -> "ok");
+            fail("The request was not failed during the hold");
+        }
+        catch (WebApplicationException exception) {
+            Response response = exception.getResponse();
+            assertEquals(429, response.getStatus());
+            assertTrue(Long.parseLong(
+                response.getHeaderString(HttpHeaders.RETRY_AFTER)) > 50);
+        }
+        assertTrue(elapsed(start) < 1000);
+
+        Future<String> background = executor.submit(() -> scheduler.execute(
+            RequestScheduler.Lane.BACKGROUND, () -> "background"));
+        Thread.sleep(100);
+        assertFalse(background.isDone());
+        background.cancel(true);
+    }
+
+    /**
+     * Tests that other failures are not retried.
+     *
+     * @throws Exception if the test failed
+     */
+    @Test
+    public void testFailureNotRetried() throws Exception
+    {
+        RequestScheduler scheduler = new RequestScheduler(3600, 3);
+        AtomicInteger calls = new AtomicInteger();
+        Future<String> value = executor.submit(() -> scheduler.execute(
+            RequestScheduler.Lane.INTERACTIVE, () -> {
+                calls.incrementAndGet();
+                throw new WebApplicationException(Response.status(503)
+                    .build());
+            }));
+        try {
+            value.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("The failure was not thrown");
+        }
+        catch (ExecutionException exception) {
+            assertSame(WebApplicationException.class,
+                exception.getCause().getClass());
+        }
+        assertEquals(1, calls.get());
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * SingleFlightTest.java
+ * Copyright (C) 2018 Kaz Nishimura
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package org.vx68k.netbeans.module.bitbucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SingleFlight}.
+ *
+ * @author Kaz Nishimura
+ */
+public final class SingleFlightTest
+{
+    /**
+     * Timeout in seconds for each wait.
+     */
+    private static final long TIMEOUT = 10;
+
+    /**
+     * Executor for the callers.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Shuts down the executor.
+     */
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts a leading call that blocks until released.
+     *
+     * @param flight a coalescer
+     * @param started a latch counted down when the call has started
+     * @param release a latch that releases the call
+     * @param result a supplier of the result after release
+     * @return the future result of the leading call
+     * @throws InterruptedException if interrupted
+     */
+    private Future<String> lead(
+        final SingleFlight<String, String> flight,
+        final CountDownLatch started, final CountDownLatch release,
+        final Supplier<String> result) throws InterruptedException
+    {
+        Future<String> value = executor.submit(() -> flight.call("", () -> {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException exception) {
+                throw new IllegalStateException(exception);
+            }
+            return result.get();
+        }));
+        started.await(TIMEOUT, TimeUnit.SECONDS);
+        return value;
+    }
+
+    /**
+     * Starts a following call and waits until it blocks on the leading
+     * one.
+     *
+     * @param flight a coalescer
+     * @param calls a counter of the calls made by the follower
+     * @return the future result of the following call
+     * @throws InterruptedException if interrupted
+     */
+    private Future<String> follow(
+        final SingleFlight<String, String> flight, final AtomicInteger calls)
+        throws InterruptedException
+    {
+        AtomicInteger thread = new AtomicInteger();
+        Thread[] follower = new Thread[1];
+        Future<String> value = executor.submit(() -> {
+            follower[0] = Thread.currentThread();
+            thread.set(1);
+            return flight.call("", () -> {
+                calls.incrementAndGet();
+                return "follower";
+            });
+        });
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (thread.get() == 0
+            || follower[0].getState() != Thread.State.WAITING) {
+            if (System.nanoTime() > deadline) {
+                fail("The follower did not wait");
+            }
+            Thread.sleep(1);
+        }
+        return value;
+    }
+
+    /**
+     * Tests that a following call shares the result of the leading one.
+     *
+     * @throws Exception if the test failed
+     */
+    @Test
+    public void testShared() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = lead(flight, started, release, () -> "leader");
+        AtomicInteger calls = new AtomicInteger();
+        Future<String> follower = follow(flight, calls);
+
+        release.countDown();
+        assertEquals("leader", leader.get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals("leader", follower.get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(0, calls.get());
+    }
+
+    /**
+     * Tests that a following call makes its own call if the leading one
+     * was cancelled.
+     *
+     * @throws Exception if the test failed
+     */
+    @Test
+    public void testFollowerSurvivesCancellation() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = lead(flight, started, release, () -> {
+            throw new CancellationException("Leader cancelled");
+        });
+        AtomicInteger calls = new AtomicInteger();
+        Future<String> follower = follow(flight, calls);
+
+        release.countDown();
+        assertEquals("follower", follower.get(TIMEOUT, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        try {
+            leader.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("The leader was not cancelled");
+        }
+        catch (ExecutionException exception) {
+            assertSame(CancellationException.class,
+                exception.getCause().getClass());
+        }
+    }
+
+    /**
+     * Tests that a following call shares the failure of the leading one.
+     *
+     * @throws Exception if the test failed
+     */
+    @Test
+    public void testFailureShared() throws Exception
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lead(flight, started, release, () -> {
+            throw new IllegalStateException("Leader failed");
+        });
+        AtomicInteger calls = new AtomicInteger();
+        Future<String> follower = follow(flight, calls);
+
+        release.countDown();
+        try {
+            follower.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("The failure was not shared");
+        }
+        catch (ExecutionException exception) {
+            assertSame(IllegalStateException.class,
+                exception.getCause().getClass());
+        }
+        assertEquals(0, calls.get());
+    }
+
+    /**
+     * Tests that a call is made again after the previous one completed.
+     */
+    @Test
+    public void testNotCachedAfterCompletion()
+    {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        assertEquals("a", flight.call("", () -> "a"));
+        assertEquals("b", flight.call("", () -> "b"));
+    }
+}